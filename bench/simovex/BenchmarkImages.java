@@ -0,0 +1,48 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Test images shared by the benchmarks.
+ */
+class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Creates an image with circles, like the demo in Movie.main. Images with a different seed are shifted.
+     */
+    static BufferedImage createImage(int width, int height, int type, int seed) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        Random r = new Random(0);
+        for (int j = 0; j < 100; j++) {
+            g.setColor(new Color(r.nextInt(255), 255, r.nextInt(255)));
+            g.fillOval(r.nextInt(width) + seed, r.nextInt(height) + seed, width / 20, width / 20);
+        }
+        g.dispose();
+        return img;
+    }
+
+}
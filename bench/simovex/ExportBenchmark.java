@@ -0,0 +1,93 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a complete export, from the first addFrame to the end of the export, in frames per second.
+ * <p/>
+ * Every invocation exports a short movie of FRAMES frames, so the score is the number of frames exported per
+ * second. An export that ffmpeg fails stops the benchmark, so broken settings cannot score as fast ones. Run with
+ * "-prof gc" to see the memory allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final int FRAMES = 50;
+
+    @Param({"320x240", "1280x720"})
+    public String size;
+
+    @Param({"H264", "MPEG4", "FLV"})
+    public String codecType;
+
+    @Param({"LOW", "MEDIUM", "HIGH", "BEST"})
+    public String compressionQuality;
+
+    @Param({"TEMPORARY_FILES", "STREAMING", "SPOOL"})
+    public String exportMode;
+
+    private int width, height;
+    private BufferedImage[] images;
+    private File movieFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        width = Integer.parseInt(dimensions[0]);
+        height = Integer.parseInt(dimensions[1]);
+        // A few different images, so the encoder has some motion to work with.
+        images = new BufferedImage[10];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = BenchmarkImages.createImage(width, height, BufferedImage.TYPE_INT_ARGB, i);
+        }
+        movieFile = File.createTempFile("sme-bench", ".mov");
+    }
+
+    @TearDown
+    public void tearDown() {
+        movieFile.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long export() {
+        Movie movie = new Movie(movieFile.getPath(), width, height,
+                Movie.CodecType.valueOf(codecType), Movie.CompressionQuality.valueOf(compressionQuality), false);
+        movie.setExportMode(Movie.ExportMode.valueOf(exportMode));
+        for (int i = 0; i < FRAMES; i++) {
+            movie.addFrame(images[i % images.length]);
+        }
+        ExportResult result = movie.export();
+        if (!result.isSuccessful()) {
+            throw new IllegalStateException("ffmpeg failed with exit code " + result.getExitCode() + ":\n" +
+                    result.getOutput());
+        }
+        return result.getFileSize();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Java side of addFrame: extracting the pixels of an image and converting them to raw BGRA, for
+ * different image types and sizes.
+ * <p/>
+ * The raw frames are written to a stream that discards them, so neither disk nor ffmpeg is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameIngestBenchmark {
+
+    @Param({"320x240", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"TYPE_INT_ARGB", "TYPE_INT_RGB", "TYPE_3BYTE_BGR", "TYPE_4BYTE_ABGR", "TYPE_USHORT_565_RGB"})
+    public String imageType;
+
+    private BufferedImage image;
+    private BufferedImage bufferImage;
+    private int[] buffer;
+    private RawVideoSink sink;
+    private int frame = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        int type = BufferedImage.class.getField(imageType).getInt(null);
+        image = BenchmarkImages.createImage(width, height, type, 0);
+        bufferImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        buffer = ((DataBufferInt) bufferImage.getRaster().getDataBuffer()).getData();
+        sink = new RawVideoSink(new NullOutputStream(), width, height);
+    }
+
+    /**
+     * Only the pixel extraction.
+     */
+    @Benchmark
+    public int[] extractPixels() {
+        return ImagePixels.extract(image, buffer, bufferImage);
+    }
+
+    /**
+     * Pixel extraction and conversion to raw BGRA, which is what addFrame does in streaming mode.
+     */
+    @Benchmark
+    public void addRawFrame() throws IOException {
+        sink.writeFrame(frame++, ImagePixels.extract(image, buffer, bufferImage));
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of writing one temporary frame, for every intermediate format.
+ * <p/>
+ * Every invocation overwrites the same temporary file, so the benchmark does not fill up the disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemporaryFrameBenchmark {
+
+    @Param({"320x240", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"PNG", "FAST_PNG", "BMP", "PAM"})
+    public String format;
+
+    private int[] pixels;
+    private ImageFileSink sink;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        BufferedImage image = BenchmarkImages.createImage(width, height, BufferedImage.TYPE_INT_ARGB, 0);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        FrameEncoder encoder = Movie.createFrameEncoder(Movie.IntermediateFormat.valueOf(format));
+        file = File.createTempFile("sme-bench", "." + encoder.getExtension());
+        sink = new ImageFileSink(file.getPath(), encoder, width, height);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sink.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void writeFrame() throws IOException {
+        sink.writeFrame(0, pixels);
+    }
+
+}
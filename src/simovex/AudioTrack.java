@@ -0,0 +1,129 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An audio track that is muxed into a movie while it is encoded.
+ * <p/>
+ * The audio comes either from a file in any format ffmpeg can read, or from raw PCM samples: signed 16-bit
+ * little-endian, with the samples of the channels interleaved.
+ */
+public class AudioTrack {
+
+    private final File file;
+    private final InputStream pcm;
+    private final int sampleRate;
+    private final int channels;
+
+    /**
+     * Creates a track from an audio file.
+     *
+     * @param file the audio file.
+     */
+    public AudioTrack(File file) {
+        this.file = file;
+        this.pcm = null;
+        this.sampleRate = 0;
+        this.channels = 0;
+    }
+
+    /**
+     * Creates a track from a stream of PCM samples. The stream is read once, when the movie is encoded, and closed
+     * afterwards.
+     *
+     * @param pcm        the samples, as signed 16-bit little-endian values.
+     * @param sampleRate the number of samples per second, for example 44100.
+     * @param channels   the number of channels, for example 2 for stereo.
+     */
+    public AudioTrack(InputStream pcm, int sampleRate, int channels) {
+        if (sampleRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("The sample rate and number of channels must be positive.");
+        }
+        this.file = null;
+        this.pcm = pcm;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    /**
+     * Creates a track from a buffer of PCM samples. The samples between the position and the limit are used; the
+     * buffer itself is not modified.
+     *
+     * @param pcm        the samples, as signed 16-bit little-endian values.
+     * @param sampleRate the number of samples per second, for example 44100.
+     * @param channels   the number of channels, for example 2 for stereo.
+     */
+    public AudioTrack(ByteBuffer pcm, int sampleRate, int channels) {
+        this(new ByteBufferInputStream(pcm.duplicate()), sampleRate, channels);
+    }
+
+    /**
+     * Returns the audio file, or null if the track consists of PCM samples.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isPcm() {
+        return pcm != null;
+    }
+
+    InputStream getPcm() {
+        return pcm;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+
+    }
+
+}
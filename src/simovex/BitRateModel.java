@@ -0,0 +1,80 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Estimates a target bit rate for a movie.
+ * <p/>
+ * The estimate is the number of pixels per second times a number of bits per pixel. The bits per pixel depend on how
+ * efficient the codec is and on the compression quality. Small frames need relatively more bits per pixel than large
+ * frames, so the bits per pixel are scaled with the frame size relative to 640x480. The estimate can be refined with
+ * a complexity factor from a ComplexityProbe: static content needs fewer bits, content with a lot of motion more.
+ */
+class BitRateModel {
+
+    /**
+     * Bits per pixel for typical content at medium quality and 640x480.
+     */
+    private static final Map<Movie.CodecType, Double> bitsPerPixel;
+    private static final Map<Movie.CompressionQuality, Double> qualityFactors;
+    private static final double REFERENCE_PIXELS = 640 * 480;
+    private static final int MINIMUM_BIT_RATE = 64;
+    private static final int MAXIMUM_BIT_RATE = 100000;
+
+    static {
+        bitsPerPixel = new EnumMap<Movie.CodecType, Double>(Movie.CodecType.class);
+        bitsPerPixel.put(Movie.CodecType.FLV, 0.12);
+        bitsPerPixel.put(Movie.CodecType.H263, 0.12);
+        bitsPerPixel.put(Movie.CodecType.H264, 0.07);
+        bitsPerPixel.put(Movie.CodecType.MPEG4, 0.1);
+        bitsPerPixel.put(Movie.CodecType.THEORA, 0.09);
+        bitsPerPixel.put(Movie.CodecType.WMV, 0.1);
+        qualityFactors = new EnumMap<Movie.CompressionQuality, Double>(Movie.CompressionQuality.class);
+        qualityFactors.put(Movie.CompressionQuality.LOW, 0.5);
+        qualityFactors.put(Movie.CompressionQuality.MEDIUM, 1.0);
+        qualityFactors.put(Movie.CompressionQuality.HIGH, 1.6);
+        qualityFactors.put(Movie.CompressionQuality.BEST, 2.5);
+    }
+
+    private BitRateModel() {
+    }
+
+    /**
+     * Returns the bit rate for a movie.
+     *
+     * @param codecType          the codec.
+     * @param compressionQuality the compression quality.
+     * @param width              the width of the movie.
+     * @param height             the height of the movie.
+     * @param frameRate          the number of frames per second.
+     * @param complexity         the complexity factor, 1 for typical content.
+     * @return the bit rate in kbit/s, or 0 for lossless codecs, which do not use a bit rate.
+     */
+    public static int bitRate(Movie.CodecType codecType, Movie.CompressionQuality compressionQuality, int width,
+                              int height, double frameRate, double complexity) {
+        Double codecBitsPerPixel = bitsPerPixel.get(codecType);
+        if (codecBitsPerPixel == null) return 0;
+        double pixels = (double) width * height;
+        double sizeFactor = Math.pow(REFERENCE_PIXELS / pixels, 0.25);
+        double bits = pixels * frameRate * codecBitsPerPixel * qualityFactors.get(compressionQuality) * sizeFactor * complexity;
+        int kiloBits = (int) Math.round(bits / 1000);
+        return Math.max(MINIMUM_BIT_RATE, Math.min(MAXIMUM_BIT_RATE, kiloBits));
+    }
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes frames as uncompressed 32-bit BMP images.
+ * <p/>
+ * The rows are stored top to bottom (a negative height in the header), so pixels are written in the same order as
+ * they are stored in memory. ARGB integers in little-endian order give the BGRA bytes BMP expects.
+ */
+class BmpFrameEncoder implements FrameEncoder {
+
+    private static final int HEADER_SIZE = 14 + 40;
+
+    public String getExtension() {
+        return "bmp";
+    }
+
+    public void encode(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        int imageSize = width * height * 4;
+        byte[] header = new byte[HEADER_SIZE];
+        // File header
+        header[0] = 'B';
+        header[1] = 'M';
+        writeInt(header, 2, HEADER_SIZE + imageSize);
+        writeInt(header, 10, HEADER_SIZE);
+        // BITMAPINFOHEADER
+        writeInt(header, 14, 40);
+        writeInt(header, 18, width);
+        writeInt(header, 22, -height);
+        writeShort(header, 26, 1); // Planes
+        writeShort(header, 28, 32); // Bits per pixel
+        writeInt(header, 30, 0); // BI_RGB, no compression
+        writeInt(header, 34, imageSize);
+        writeInt(header, 38, 2835); // 72 DPI
+        writeInt(header, 42, 2835);
+        out.write(header);
+
+        byte[] row = new byte[width * 4];
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = pixels[p++];
+                row[i++] = (byte) argb;
+                row[i++] = (byte) (argb >> 8);
+                row[i++] = (byte) (argb >> 16);
+                row[i++] = (byte) (argb >>> 24);
+            }
+            out.write(row);
+        }
+        out.flush();
+    }
+
+    public void dispose() {
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+}
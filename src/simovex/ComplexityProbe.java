@@ -0,0 +1,94 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+/**
+ * Measures how much frames change, to estimate how hard a movie is to compress.
+ * <p/>
+ * The probe compares a fixed grid of sample pixels of every frame with the same pixels of the previous frame, so it
+ * costs a few thousand pixel reads per frame regardless of the frame size.
+ */
+class ComplexityProbe {
+
+    private static final int GRID_SIZE = 32;
+
+    private final int[] offsets;
+    private final int[] previous;
+    private long totalDelta = 0;
+    private long comparedSamples = 0;
+    private boolean hasPrevious = false;
+
+    public ComplexityProbe(int width, int height) {
+        int columns = Math.min(GRID_SIZE, width);
+        int rows = Math.min(GRID_SIZE, height);
+        offsets = new int[columns * rows];
+        for (int y = 0, i = 0; y < rows; y++) {
+            int row = (y * height / rows + height / rows / 2) * width;
+            for (int x = 0; x < columns; x++) {
+                offsets[i++] = row + x * width / columns + width / columns / 2;
+            }
+        }
+        previous = new int[offsets.length];
+    }
+
+    /**
+     * Compares the frame with the previous frame.
+     *
+     * @param pixels the ARGB pixels of the frame.
+     */
+    public void addFrame(int[] pixels) {
+        for (int i = 0; i < offsets.length; i++) {
+            int rgb = pixels[offsets[i]];
+            if (hasPrevious) {
+                int old = previous[i];
+                totalDelta += Math.abs(((rgb >> 16) & 0xff) - ((old >> 16) & 0xff))
+                        + Math.abs(((rgb >> 8) & 0xff) - ((old >> 8) & 0xff))
+                        + Math.abs((rgb & 0xff) - (old & 0xff));
+            }
+            previous[i] = rgb;
+        }
+        if (hasPrevious) {
+            comparedSamples += offsets.length;
+        }
+        hasPrevious = true;
+    }
+
+    /**
+     * Returns the mean difference between consecutive frames, from 0 (no change) to 1 (every channel of every pixel
+     * changed from black to white or back).
+     *
+     * @return the mean difference, or -1 if fewer than two frames were added.
+     */
+    public double getMeanDelta() {
+        if (comparedSamples == 0) return -1;
+        return totalDelta / (comparedSamples * 3 * 255.0);
+    }
+
+    /**
+     * Returns the complexity factor for the bit rate model.
+     * <p/>
+     * A mean difference of 5% is typical and gives a factor of 1. Static content gives a factor of 0.6 and the factor
+     * is at most 2.
+     *
+     * @return the complexity factor, or 1 if fewer than two frames were added.
+     */
+    public double getComplexity() {
+        double meanDelta = getMeanDelta();
+        if (meanDelta < 0) return 1;
+        return Math.max(0.6, Math.min(2.0, 0.6 + 8 * meanDelta));
+    }
+
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps ffmpeg processes started ahead of time, so short streaming exports do not wait for ffmpeg to start.
+ * <p/>
+ * For every combination of encoding settings that was used, the pool keeps a number of idle ffmpeg processes that
+ * are already waiting for raw frames on their standard input. A movie in STREAMING mode that uses the pool takes one
+ * of these processes when its first frame is added, and the pool immediately starts a replacement in the background.
+ * Since the output file of a process is fixed when it starts, warm processes write to a temporary file that is moved
+ * to the movie file when the movie is saved.
+ * <p/>
+ * The total number of idle processes is capped. When a new combination of settings needs room, the idle processes of
+ * the combination that was least recently used are stopped.
+ * <p/>
+ * One pool can be shared by any number of movies. Call shutdown() when it is no longer needed; the idle processes
+ * are also stopped when the JVM exits.
+ */
+public class EncoderPool {
+
+    private static final int DEFAULT_SETTINGS_COUNT = 4;
+
+    private final int idleProcesses;
+    private final int maxIdleProcesses;
+    // In access order, so the first entry holds the settings that were used least recently.
+    private final Map<List<String>, LinkedList<FfmpegProcess>> idle =
+            new LinkedHashMap<List<String>, LinkedList<FfmpegProcess>>(16, 0.75f, true);
+    private final ExecutorService starter;
+    private final Thread shutdownHook;
+    private boolean shutdown = false;
+
+    /**
+     * Creates a pool that keeps one idle process for every combination of encoding settings.
+     */
+    public EncoderPool() {
+        this(1);
+    }
+
+    /**
+     * Creates a pool that keeps idle processes for up to four combinations of encoding settings.
+     *
+     * @param idleProcesses the number of idle processes to keep for every combination of encoding settings.
+     */
+    public EncoderPool(int idleProcesses) {
+        this(idleProcesses, idleProcesses * DEFAULT_SETTINGS_COUNT);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param idleProcesses    the number of idle processes to keep for every combination of encoding settings.
+     * @param maxIdleProcesses the maximum number of idle processes for all combinations together.
+     */
+    public EncoderPool(int idleProcesses, int maxIdleProcesses) {
+        if (idleProcesses < 1) {
+            throw new IllegalArgumentException("The pool should keep at least one idle process.");
+        }
+        if (maxIdleProcesses < idleProcesses) {
+            throw new IllegalArgumentException("The maximum number of idle processes is lower than the number per combination of settings.");
+        }
+        this.idleProcesses = idleProcesses;
+        this.maxIdleProcesses = maxIdleProcesses;
+        starter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simovex-encoder-pool");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        shutdownHook = new Thread(new Runnable() {
+            public void run() {
+                stopIdleProcesses();
+            }
+        }, "simovex-encoder-pool-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Returns a running ffmpeg process for the given command and starts a replacement in the background.
+     * <p/>
+     * The returned process writes to a temporary file instead of the output file in the command, unless no idle
+     * process was available and it had to be started right away.
+     *
+     * @param command the ffmpeg command line. The last argument is the output file.
+     * @return a running process.
+     * @throws IOException if ffmpeg could not be started.
+     */
+    FfmpegProcess acquire(List<String> command) throws IOException {
+        final List<String> settings = new ArrayList<String>(command.subList(0, command.size() - 1));
+        String outputFile = command.get(command.size() - 1);
+        final String extension = outputFile.substring(outputFile.lastIndexOf('.') + 1);
+        FfmpegProcess process = null;
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("The encoder pool has been shut down.");
+            }
+            LinkedList<FfmpegProcess> processes = idle.get(settings);
+            // Skip processes that exited, for example because ffmpeg rejected the settings.
+            while (processes != null && !processes.isEmpty() && process == null) {
+                FfmpegProcess candidate = processes.removeFirst();
+                if (candidate.isRunning()) {
+                    process = candidate;
+                } else {
+                    candidate.getOutputFile().delete();
+                }
+            }
+        }
+        if (process == null) {
+            process = new FfmpegProcess(command, false, null, null);
+        }
+        starter.execute(new Runnable() {
+            public void run() {
+                fill(settings, extension);
+            }
+        });
+        return process;
+    }
+
+    /**
+     * Starts processes until there are enough idle processes for the settings.
+     */
+    private void fill(List<String> settings, String extension) {
+        while (true) {
+            synchronized (this) {
+                if (shutdown) return;
+                LinkedList<FfmpegProcess> processes = idle.get(settings);
+                if (processes != null && processes.size() >= idleProcesses) return;
+            }
+            FfmpegProcess process;
+            try {
+                File outputFile = File.createTempFile("sme-pool", "." + extension);
+                List<String> command = new ArrayList<String>(settings);
+                command.add(outputFile.getPath());
+                process = new FfmpegProcess(command, false, null, null);
+            } catch (IOException e) {
+                // Movies will start their own process instead.
+                return;
+            }
+            boolean stopped;
+            List<FfmpegProcess> evicted = new ArrayList<FfmpegProcess>();
+            synchronized (this) {
+                stopped = shutdown;
+                if (stopped) {
+                    evicted.add(process);
+                } else {
+                    LinkedList<FfmpegProcess> processes = idle.get(settings);
+                    if (processes == null) {
+                        processes = new LinkedList<FfmpegProcess>();
+                        idle.put(settings, processes);
+                    }
+                    processes.add(process);
+                    evict(settings, evicted);
+                }
+            }
+            // Waiting for the processes to exit happens outside the lock, so movies can acquire processes meanwhile.
+            for (FfmpegProcess p : evicted) {
+                discard(p);
+            }
+            if (stopped) return;
+        }
+    }
+
+    /**
+     * Removes idle processes of the least recently used settings until the total is within the maximum.
+     *
+     * @param keep    the settings whose processes are kept.
+     * @param evicted the list the removed processes are added to.
+     */
+    private void evict(List<String> keep, List<FfmpegProcess> evicted) {
+        int count = 0;
+        for (LinkedList<FfmpegProcess> processes : idle.values()) {
+            count += processes.size();
+        }
+        Iterator<Map.Entry<List<String>, LinkedList<FfmpegProcess>>> it = idle.entrySet().iterator();
+        while (count > maxIdleProcesses && it.hasNext()) {
+            Map.Entry<List<String>, LinkedList<FfmpegProcess>> entry = it.next();
+            if (entry.getKey().equals(keep)) continue;
+            count -= entry.getValue().size();
+            evicted.addAll(entry.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the number of idle processes waiting for a movie.
+     */
+    public synchronized int getIdleProcessCount() {
+        int count = 0;
+        for (LinkedList<FfmpegProcess> processes : idle.values()) {
+            count += processes.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stops all idle processes and removes their temporary files. Processes in use by movies keep running.
+     */
+    public void shutdown() {
+        stopIdleProcesses();
+        starter.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down.
+        }
+    }
+
+    private void stopIdleProcesses() {
+        List<FfmpegProcess> stopped = new ArrayList<FfmpegProcess>();
+        synchronized (this) {
+            shutdown = true;
+            for (LinkedList<FfmpegProcess> processes : idle.values()) {
+                stopped.addAll(processes);
+            }
+            idle.clear();
+        }
+        for (FfmpegProcess process : stopped) {
+            discard(process);
+        }
+    }
+
+    private static void discard(FfmpegProcess process) {
+        process.destroy();
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        process.getOutputFile().delete();
+    }
+
+}
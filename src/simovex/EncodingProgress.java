@@ -0,0 +1,152 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A progress report of a running ffmpeg process.
+ * <p/>
+ * Values that ffmpeg did not report, or reported as "N/A", are -1.
+ */
+public class EncodingProgress {
+
+    private static final Pattern FIELD_PATTERN = Pattern.compile("(\\w+)=\\s*(\\S+)");
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("-?[0-9]+(\\.[0-9]+)?");
+
+    private final int frame;
+    private final double fps;
+    private final long size;
+    private final double time;
+    private final double bitRate;
+    private final double speed;
+
+    public EncodingProgress(int frame, double fps, long size, double time, double bitRate, double speed) {
+        this.frame = frame;
+        this.fps = fps;
+        this.size = size;
+        this.time = time;
+        this.bitRate = bitRate;
+        this.speed = speed;
+    }
+
+    /**
+     * Parses a progress line from the ffmpeg output, such as
+     * "frame=  250 fps= 61 q=28.0 size=    1024kB time=00:00:10.00 bitrate= 838.9kbits/s speed=2.44x".
+     *
+     * @param line a line of ffmpeg output.
+     * @return the progress, or null if the line is not a progress line.
+     */
+    static EncodingProgress parse(String line) {
+        if (!line.startsWith("frame=")) return null;
+        int frame = -1;
+        double fps = -1, time = -1, bitRate = -1, speed = -1;
+        long size = -1;
+        Matcher m = FIELD_PATTERN.matcher(line);
+        while (m.find()) {
+            String key = m.group(1);
+            String value = m.group(2);
+            if (key.equals("frame")) {
+                frame = (int) parseNumber(value);
+            } else if (key.equals("fps")) {
+                fps = parseNumber(value);
+            } else if (key.equals("size") || key.equals("Lsize")) {
+                double kiloBytes = parseNumber(value);
+                size = kiloBytes < 0 ? -1 : (long) (kiloBytes * 1024);
+            } else if (key.equals("time")) {
+                time = parseTime(value);
+            } else if (key.equals("bitrate")) {
+                bitRate = parseNumber(value);
+            } else if (key.equals("speed")) {
+                speed = parseNumber(value);
+            }
+        }
+        return new EncodingProgress(frame, fps, size, time, bitRate, speed);
+    }
+
+    /**
+     * Parses the leading number of a value such as "838.9kbits/s" or "2.44x".
+     */
+    private static double parseNumber(String value) {
+        Matcher m = NUMBER_PATTERN.matcher(value);
+        if (!m.lookingAt()) return -1;
+        return Double.parseDouble(m.group());
+    }
+
+    /**
+     * Parses a time given as "HH:MM:SS.ss" or, by older ffmpeg versions, as seconds.
+     */
+    private static double parseTime(String value) {
+        String[] parts = value.split(":");
+        double seconds = 0;
+        for (String part : parts) {
+            double number = parseNumber(part);
+            if (number < 0) return -1;
+            seconds = seconds * 60 + number;
+        }
+        return seconds;
+    }
+
+    /**
+     * Returns the number of frames encoded so far.
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Returns the number of frames encoded per second.
+     */
+    public double getFps() {
+        return fps;
+    }
+
+    /**
+     * Returns the size of the movie written so far, in bytes.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the time position in the movie that has been encoded, in seconds.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the bit rate of the movie so far, in kbit/s.
+     */
+    public double getBitRate() {
+        return bitRate;
+    }
+
+    /**
+     * Returns the encoding speed as a factor of real time.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodingProgress{frame=" + frame + ", fps=" + fps + ", size=" + size + ", time=" + time +
+                ", bitRate=" + bitRate + ", speed=" + speed + "}";
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.File;
+
+/**
+ * The outcome of encoding a movie.
+ */
+public class ExportResult {
+
+    private final File movieFile;
+    private final int exitCode;
+    private final int frameCount;
+    private final long duration;
+    private final String output;
+
+    public ExportResult(File movieFile, int exitCode, int frameCount, long duration, String output) {
+        this.movieFile = movieFile;
+        this.exitCode = exitCode;
+        this.frameCount = frameCount;
+        this.duration = duration;
+        this.output = output;
+    }
+
+    public File getMovieFile() {
+        return movieFile;
+    }
+
+    /**
+     * Returns the exit code of ffmpeg. Zero means the movie was encoded successfully.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isSuccessful() {
+        return exitCode == 0;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the size of the movie file in bytes, or 0 if it does not exist.
+     */
+    public long getFileSize() {
+        return movieFile.length();
+    }
+
+    /**
+     * Returns how long ffmpeg ran, in milliseconds. In streaming mode, ffmpeg starts when the first frame is added.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the number of frames encoded per second.
+     */
+    public double getFramesPerSecond() {
+        return duration > 0 ? frameCount * 1000.0 / duration : 0;
+    }
+
+    /**
+     * Returns the last lines ffmpeg wrote, without the progress lines. If the export failed, these lines usually
+     * explain why.
+     *
+     * @return the output lines, separated by newlines, or an empty string if ffmpeg did not run.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return "ExportResult{movieFile=" + movieFile + ", exitCode=" + exitCode + ", frameCount=" + frameCount +
+                ", duration=" + duration + "}";
+    }
+
+}
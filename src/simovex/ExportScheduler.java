@@ -0,0 +1,174 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves several movies in the background while limiting the number of ffmpeg processes that run at the same time.
+ * <p/>
+ * Every ffmpeg process normally uses all cores, so running many of them at once makes them compete for the CPU. The
+ * scheduler queues the movies, runs at most a fixed number of exports at once, and divides the available cores
+ * between them using the -threads option of ffmpeg.
+ * <p/>
+ * Use it like this:
+ * <pre>
+ * ExportScheduler scheduler = new ExportScheduler(4);
+ * Future&lt;ExportResult&gt; result = scheduler.submit(movie);
+ * ...
+ * scheduler.shutdown();
+ * </pre>
+ * The scheduler is meant for movies that encode in save(). A movie in STREAMING mode has been encoding since its
+ * first frame was added, so its number of threads is left unchanged.
+ */
+public class ExportScheduler {
+
+    private final int maxConcurrentExports;
+    private final int availableCores;
+    private final ExecutorService executor;
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+    private final AtomicInteger activeJobs = new AtomicInteger();
+    private final AtomicLong completedJobs = new AtomicLong();
+
+    /**
+     * Creates a scheduler that divides all cores of this machine.
+     *
+     * @param maxConcurrentExports the maximum number of ffmpeg processes that run at the same time.
+     */
+    public ExportScheduler(int maxConcurrentExports) {
+        this(maxConcurrentExports, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param maxConcurrentExports the maximum number of ffmpeg processes that run at the same time.
+     * @param availableCores       the number of cores divided between the running exports.
+     */
+    public ExportScheduler(int maxConcurrentExports, int availableCores) {
+        if (maxConcurrentExports < 1) {
+            throw new IllegalArgumentException("At least one export should be able to run.");
+        }
+        this.maxConcurrentExports = maxConcurrentExports;
+        this.availableCores = Math.max(1, availableCores);
+        executor = Executors.newFixedThreadPool(maxConcurrentExports, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simovex-scheduler-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues the movie for export. No frames can be added to the movie after calling this method.
+     * <p/>
+     * Cancelling the returned future removes the movie from the queue, or stops ffmpeg if the export is running.
+     *
+     * @param movie the movie to save.
+     * @return a future for the result of the export.
+     */
+    public Future<ExportResult> submit(final Movie movie) {
+        final ExportTask task = new ExportTask(movie);
+        queuedJobs.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    queuedJobs.decrementAndGet();
+                    if (task.isDone()) return;
+                    int jobs = activeJobs.incrementAndGet();
+                    try {
+                        if (movie.getExportMode() != Movie.ExportMode.STREAMING) {
+                            movie.setThreads(threadsPerExport(availableCores, jobs + queuedJobs.get(), maxConcurrentExports));
+                        }
+                        task.run();
+                    } finally {
+                        activeJobs.decrementAndGet();
+                        completedJobs.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queuedJobs.decrementAndGet();
+            throw e;
+        }
+        return task;
+    }
+
+    /**
+     * Returns the number of threads for an export that starts now.
+     * <p/>
+     * The cores are divided between the exports that will run at the same time: the ones already running plus the
+     * ones waiting in the queue, up to the maximum.
+     */
+    static int threadsPerExport(int availableCores, int pendingExports, int maxConcurrentExports) {
+        int concurrentExports = Math.max(1, Math.min(pendingExports, maxConcurrentExports));
+        return Math.max(1, availableCores / concurrentExports);
+    }
+
+    public int getMaxConcurrentExports() {
+        return maxConcurrentExports;
+    }
+
+    public int getAvailableCores() {
+        return availableCores;
+    }
+
+    /**
+     * Returns the number of movies waiting for an export slot.
+     */
+    public int getQueueDepth() {
+        return queuedJobs.get();
+    }
+
+    /**
+     * Returns the number of movies being exported right now.
+     */
+    public int getActiveJobs() {
+        return activeJobs.get();
+    }
+
+    /**
+     * Returns the number of exports that finished, successfully or not.
+     */
+    public long getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    /**
+     * Stops accepting new movies. Movies that were already submitted are still exported.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until all submitted movies are exported after a shutdown.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the unit of the timeout.
+     * @return true if all exports finished, false if the timeout elapsed first.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+}
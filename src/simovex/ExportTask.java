@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Encodes a movie when run. Cancelling the task stops ffmpeg and removes the temporary files and the partial movie.
+ */
+class ExportTask extends FutureTask<ExportResult> {
+
+    private final Movie movie;
+
+    public ExportTask(final Movie movie) {
+        super(new Callable<ExportResult>() {
+            public ExportResult call() {
+                return movie.export();
+            }
+        });
+        this.movie = movie;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            movie.abortExport();
+        }
+        return cancelled;
+    }
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes frames as PNG images with fast compression.
+ * <p/>
+ * Temporary images are only read once by ffmpeg, so compressing them well is wasted effort. This encoder uses the
+ * fastest deflate level and no row filtering, and reuses its deflaters and buffers for every frame. Idle deflaters
+ * are kept in a pool until dispose() ends them.
+ */
+class FastPngFrameEncoder implements FrameEncoder {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Encoder state, one for every frame that is being encoded, since frames can be encoded on several threads at once.
+     */
+    private static class State {
+        final Deflater deflater;
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] row = new byte[0];
+
+        State(int level) {
+            deflater = new Deflater(level);
+        }
+    }
+
+    private final int compressionLevel;
+    private final List<State> idleStates = new ArrayList<State>();
+
+    public FastPngFrameEncoder(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public String getExtension() {
+        return "png";
+    }
+
+    public void encode(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        State s = acquireState();
+        try {
+            encode(pixels, width, height, out, s);
+        } finally {
+            releaseState(s);
+        }
+    }
+
+    /**
+     * Ends the deflaters of the pool. Encoding another frame creates new ones.
+     */
+    public void dispose() {
+        List<State> states;
+        synchronized (idleStates) {
+            states = new ArrayList<State>(idleStates);
+            idleStates.clear();
+        }
+        for (State s : states) {
+            s.deflater.end();
+        }
+    }
+
+    private State acquireState() {
+        synchronized (idleStates) {
+            if (!idleStates.isEmpty()) {
+                return idleStates.remove(idleStates.size() - 1);
+            }
+        }
+        return new State(compressionLevel);
+    }
+
+    private void releaseState(State s) {
+        synchronized (idleStates) {
+            idleStates.add(s);
+        }
+    }
+
+    private static void encode(int[] pixels, int width, int height, OutputStream out, State s) throws IOException {
+        int rowSize = 1 + width * 4;
+        if (s.row.length != rowSize) {
+            s.row = new byte[rowSize];
+        }
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+
+        byte[] header = s.chunk;
+        writeInt(header, 0, width);
+        writeInt(header, 4, height);
+        header[8] = 8; // Bit depth
+        header[9] = 6; // Color type: RGB with alpha
+        header[10] = 0; // Compression method: deflate
+        header[11] = 0; // Filter method
+        header[12] = 0; // No interlacing
+        writeChunk(data, s, "IHDR", header, 13);
+
+        Deflater deflater = s.deflater;
+        deflater.reset();
+        byte[] row = s.row;
+        int length = 0;
+        for (int y = 0, p = 0; y < height; y++) {
+            row[0] = 0; // Filter type: none
+            for (int x = 0, i = 1; x < width; x++) {
+                int argb = pixels[p++];
+                row[i++] = (byte) (argb >> 16);
+                row[i++] = (byte) (argb >> 8);
+                row[i++] = (byte) argb;
+                row[i++] = (byte) (argb >>> 24);
+            }
+            deflater.setInput(row, 0, rowSize);
+            while (!deflater.needsInput()) {
+                length = deflate(data, s, length);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            length = deflate(data, s, length);
+        }
+        if (length > 0) {
+            writeChunk(data, s, "IDAT", s.chunk, length);
+        }
+        writeChunk(data, s, "IEND", s.chunk, 0);
+        data.flush();
+    }
+
+    /**
+     * Compresses into the chunk buffer, writing an IDAT chunk whenever the buffer is full.
+     *
+     * @return the number of bytes in the chunk buffer.
+     */
+    private static int deflate(DataOutputStream data, State s, int length) throws IOException {
+        length += s.deflater.deflate(s.chunk, length, CHUNK_SIZE - length);
+        if (length == CHUNK_SIZE) {
+            writeChunk(data, s, "IDAT", s.chunk, length);
+            length = 0;
+        }
+        return length;
+    }
+
+    private static void writeChunk(DataOutputStream data, State s, String type, byte[] bytes, int length) throws IOException {
+        byte[] typeBytes = {(byte) type.charAt(0), (byte) type.charAt(1), (byte) type.charAt(2), (byte) type.charAt(3)};
+        data.writeInt(length);
+        data.write(typeBytes);
+        data.write(bytes, 0, length);
+        s.crc.reset();
+        s.crc.update(typeBytes);
+        s.crc.update(bytes, 0, length);
+        data.writeInt((int) s.crc.getValue());
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * A running ffmpeg process.
+ * <p/>
+ * The merged stdout/stderr of the process is read on a background thread, so the caller can keep writing
+ * to the standard input of the process without the output pipe filling up and blocking ffmpeg. Progress lines are
+ * parsed and reported to the listener; only the last other lines are kept, for error reports.
+ * <p/>
+ * If ffmpeg writes the movie to its standard output, the output is copied to a channel by a second thread, and only
+ * the standard error is read as log output.
+ */
+class FfmpegProcess {
+
+    private static final int LOG_LINES = 100;
+
+    private final Process process;
+    private final Thread outputReader;
+    private final Thread movieReader;
+    private final InputStream logOutput;
+    private volatile IOException movieOutputException;
+    private final LogBuffer log = new LogBuffer(LOG_LINES);
+    private final File outputFile;
+    private volatile boolean verbose;
+    private volatile Movie movie;
+    private volatile ProgressListener progressListener;
+    private volatile EncodingProgress lastProgress;
+
+    /**
+     * Starts ffmpeg.
+     *
+     * @param command          the command line.
+     * @param verbose          if true, the command line and all output are printed.
+     * @param movie            the movie that is encoded, passed to the listener.
+     * @param progressListener the listener that receives progress reports, or null.
+     * @throws IOException if the process could not be started.
+     */
+    public FfmpegProcess(List<String> command, boolean verbose, Movie movie, ProgressListener progressListener) throws IOException {
+        this(command, verbose, movie, progressListener, null);
+    }
+
+    /**
+     * Starts ffmpeg, copying its standard output to a channel.
+     *
+     * @param command          the command line.
+     * @param verbose          if true, the command line and all log output are printed.
+     * @param movie            the movie that is encoded, passed to the listener.
+     * @param progressListener the listener that receives progress reports, or null.
+     * @param movieOutput      the channel that receives the standard output of ffmpeg, or null if ffmpeg writes to a
+     *                         file. The channel is not closed.
+     * @throws IOException if the process could not be started.
+     */
+    public FfmpegProcess(List<String> command, boolean verbose, Movie movie, ProgressListener progressListener,
+                         final WritableByteChannel movieOutput) throws IOException {
+        // By convention, the output file is the last argument.
+        outputFile = new File(command.get(command.size() - 1));
+        this.verbose = verbose;
+        this.movie = movie;
+        this.progressListener = progressListener;
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if (verbose) {
+            for (String cmd : pb.command()) {
+                System.out.print(cmd + " ");
+            }
+            System.out.println();
+        }
+        pb.redirectErrorStream(movieOutput == null);
+        process = pb.start();
+        logOutput = movieOutput == null ? process.getInputStream() : process.getErrorStream();
+        outputReader = new Thread(new Runnable() {
+            public void run() {
+                readOutput();
+            }
+        }, "ffmpeg-output");
+        outputReader.setDaemon(true);
+        outputReader.start();
+        if (movieOutput != null) {
+            movieReader = new Thread(new Runnable() {
+                public void run() {
+                    copyMovieOutput(movieOutput);
+                }
+            }, "ffmpeg-movie-output");
+            movieReader.setDaemon(true);
+            movieReader.start();
+        } else {
+            movieReader = null;
+        }
+    }
+
+    private void copyMovieOutput(WritableByteChannel movieOutput) {
+        InputStream in = process.getInputStream();
+        byte[] buffer = new byte[256 * 1024];
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, n);
+                while (bytes.hasRemaining()) {
+                    movieOutput.write(bytes);
+                }
+            }
+        } catch (IOException e) {
+            movieOutputException = e;
+            // Nobody reads the movie anymore, so there is no point in encoding the rest.
+            process.destroy();
+        }
+    }
+
+    private void readOutput() {
+        try {
+            // ffmpeg ends progress lines with a carriage return, which readLine treats as a line end.
+            BufferedReader in = new BufferedReader(new InputStreamReader(logOutput));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (verbose) {
+                    System.out.println(line);
+                }
+                EncodingProgress progress = EncodingProgress.parse(line);
+                if (progress == null) {
+                    log.add(line);
+                } else {
+                    lastProgress = progress;
+                    ProgressListener listener = progressListener;
+                    if (listener != null) {
+                        notifyListener(listener, progress);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The process was destroyed; whatever was read so far is kept.
+        }
+    }
+
+    private void notifyListener(ProgressListener listener, EncodingProgress progress) {
+        try {
+            listener.progressChanged(movie, progress);
+        } catch (RuntimeException e) {
+            // Keep reading: if this thread stopped, ffmpeg would block on a full output pipe.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hands the process over to a movie. Used for processes that were started before the movie was known.
+     *
+     * @param movie            the movie that is encoded, passed to the listener.
+     * @param progressListener the listener that receives progress reports, or null.
+     * @param verbose          if true, all output from now on is printed.
+     */
+    public void attach(Movie movie, ProgressListener progressListener, boolean verbose) {
+        this.movie = movie;
+        this.progressListener = progressListener;
+        this.verbose = verbose;
+    }
+
+    /**
+     * Returns the file ffmpeg writes to.
+     */
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * Checks if the process is still running.
+     */
+    public boolean isRunning() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the standard input of the process.
+     *
+     * @return the stream ffmpeg reads its input from.
+     */
+    public OutputStream getOutputStream() {
+        return process.getOutputStream();
+    }
+
+    /**
+     * Waits until the process has exited and all of its output has been read.
+     *
+     * @return the exit code of the process.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public int waitFor() throws InterruptedException {
+        int exitCode = process.waitFor();
+        outputReader.join();
+        if (movieReader != null) {
+            movieReader.join();
+        }
+        return exitCode;
+    }
+
+    /**
+     * Returns the error that occurred while copying the movie to its channel.
+     *
+     * @return the error, or null if the movie was copied or is written to a file.
+     */
+    public IOException getMovieOutputException() {
+        return movieOutputException;
+    }
+
+    /**
+     * Returns the last lines of output, without the progress lines.
+     *
+     * @return the output lines, separated by newlines.
+     */
+    public String getOutput() {
+        return log.toString();
+    }
+
+    /**
+     * Returns the last progress reported by ffmpeg.
+     *
+     * @return the progress, or null if ffmpeg has not reported any progress yet.
+     */
+    public EncodingProgress getLastProgress() {
+        return lastProgress;
+    }
+
+    public void destroy() {
+        process.destroy();
+    }
+
+}
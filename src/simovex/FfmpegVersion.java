@@ -0,0 +1,145 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The version of an ffmpeg binary, and what it can do.
+ * <p/>
+ * There are three generations. The binaries in platform are old Subversion builds from 2010, which read x264 settings
+ * from the preset files in res, and know none of the options for concatenation, filter graphs, stream specifiers or
+ * segmented output. ffmpeg 1.0 and later reject those preset files and use the presets built into libx264 instead.
+ * ffmpeg 4.1 and later have every option Movie uses. If the version cannot be determined, for example for a build
+ * with a custom version string, the binary is assumed to be a recent one.
+ */
+class FfmpegVersion {
+
+    private static final int MODERN_MAJOR = 4;
+    private static final int MODERN_MINOR = 1;
+    private static final Pattern SUBVERSION_PATTERN = Pattern.compile("version (?:git-)?svn-r(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern RELEASE_PATTERN = Pattern.compile("version n?(\\d+)\\.(\\d+)");
+    private static final Pattern VERSION_PATTERN = Pattern.compile("version ([^\\s,]+)");
+
+    private final File binary;
+    private final String version;
+    private final boolean presetFiles;
+    private final boolean modern;
+
+    /**
+     * Creates the version from the output of "ffmpeg -version". Only the first line is used; later lines mention the
+     * versions of the libraries and the compiler.
+     *
+     * @param binary        the ffmpeg binary.
+     * @param versionOutput the output of the binary.
+     */
+    FfmpegVersion(File binary, String versionOutput) {
+        this.binary = binary;
+        int lineEnd = versionOutput.indexOf('\n');
+        if (lineEnd >= 0) {
+            versionOutput = versionOutput.substring(0, lineEnd);
+        }
+        Matcher versionMatcher = VERSION_PATTERN.matcher(versionOutput);
+        version = versionMatcher.find() ? versionMatcher.group(1) : "unknown";
+        Matcher subversion = SUBVERSION_PATTERN.matcher(versionOutput);
+        Matcher release = RELEASE_PATTERN.matcher(versionOutput);
+        if (subversion.find()) {
+            presetFiles = true;
+            modern = false;
+        } else if (release.find()) {
+            int major = Integer.parseInt(release.group(1));
+            int minor = Integer.parseInt(release.group(2));
+            presetFiles = major == 0;
+            modern = major > MODERN_MAJOR || (major == MODERN_MAJOR && minor >= MODERN_MINOR);
+        } else {
+            presetFiles = false;
+            modern = true;
+        }
+    }
+
+    /**
+     * Runs "ffmpeg -version" to find out the version of a binary.
+     *
+     * @param binary the ffmpeg binary.
+     * @return the version. If the binary could not be run, the version is unknown.
+     */
+    static FfmpegVersion probe(File binary) {
+        List<String> command = new ArrayList<String>();
+        command.add(binary.getAbsolutePath());
+        command.add("-version");
+        StringBuilder output = new StringBuilder();
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            Process process = pb.start();
+            process.getOutputStream().close();
+            BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = in.readLine()) != null) {
+                output.append(line).append('\n');
+            }
+            process.waitFor();
+        } catch (IOException e) {
+            // Exporting fails later on with a clearer error.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new FfmpegVersion(binary, output.toString());
+    }
+
+    /**
+     * Returns the version as ffmpeg reports it, such as "4.4.2" or "SVN-r21062".
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks if x264 settings are passed as preset files with -fpre, instead of as libx264 presets.
+     */
+    public boolean usesPresetFiles() {
+        return presetFiles;
+    }
+
+    /**
+     * Checks if the binary has the options for concatenation, filter graphs, stream specifiers, fragmented MP4,
+     * HLS and DASH output.
+     */
+    public boolean isModern() {
+        return modern;
+    }
+
+    /**
+     * Fails if the binary cannot be used for a feature that needs a recent ffmpeg.
+     *
+     * @param feature the feature, for the error message, such as "Live output".
+     * @throws UnsupportedOperationException if the binary is older than ffmpeg 4.1.
+     */
+    public void require(String feature) {
+        if (!modern) {
+            throw new UnsupportedOperationException(feature + " needs ffmpeg " + MODERN_MAJOR + "." + MODERN_MINOR
+                    + " or later, but " + binary + " is version " + version + ".");
+        }
+    }
+
+}
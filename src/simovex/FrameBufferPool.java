@@ -0,0 +1,84 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed-size pool of ARGB frame buffers.
+ * <p/>
+ * Buffers are created on demand until the pool reaches its capacity. After that, acquire() blocks until
+ * another thread releases a buffer, which limits the memory used by frames that are waiting to be written.
+ */
+class FrameBufferPool {
+
+    /**
+     * A reusable frame: the ARGB pixels of one frame, one int per pixel, row by row.
+     */
+    static class FrameBuffer {
+        final int[] pixels;
+        int frame;
+
+        FrameBuffer(int size) {
+            pixels = new int[size];
+        }
+    }
+
+    private final int frameSize, capacity;
+    private final BlockingQueue<FrameBuffer> available;
+    private int created = 0;
+
+    public FrameBufferPool(int width, int height, int capacity) {
+        this.frameSize = width * height;
+        this.capacity = capacity;
+        available = new ArrayBlockingQueue<FrameBuffer>(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of buffers created so far. This never exceeds the capacity.
+     */
+    public synchronized int getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * Returns a free buffer, waiting for one to be released if all buffers are in use.
+     *
+     * @return a frame buffer. Its contents are undefined.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public FrameBuffer acquire() throws InterruptedException {
+        FrameBuffer buffer = available.poll();
+        if (buffer != null) return buffer;
+        synchronized (this) {
+            if (created < capacity) {
+                created++;
+                return new FrameBuffer(frameSize);
+            }
+        }
+        return available.take();
+    }
+
+    public void release(FrameBuffer buffer) {
+        available.offer(buffer);
+    }
+
+}
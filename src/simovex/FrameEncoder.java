@@ -0,0 +1,52 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes a frame into an image file format.
+ * <p/>
+ * Encoders are used from several threads at the same time when temporary images are encoded in parallel.
+ */
+interface FrameEncoder {
+
+    /**
+     * Returns the extension of the files created by this encoder, which ffmpeg uses to detect the format.
+     *
+     * @return the file extension, without the dot.
+     */
+    String getExtension();
+
+    /**
+     * Encodes the pixels.
+     *
+     * @param pixels the ARGB pixels of the frame, one int per pixel, row by row.
+     * @param width  the width of the frame.
+     * @param height the height of the frame.
+     * @param out    the stream to write the image to.
+     * @throws IOException if the image could not be written.
+     */
+    void encode(int[] pixels, int width, int height, OutputStream out) throws IOException;
+
+    /**
+     * Releases the resources this encoder keeps between frames, such as native compression state. The encoder can
+     * still be used afterwards.
+     */
+    void dispose();
+
+}
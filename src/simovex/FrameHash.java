@@ -0,0 +1,64 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+/**
+ * Computes a 64-bit hash of the pixels of a frame, to detect identical frames.
+ */
+class FrameHash {
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    private FrameHash() {
+    }
+
+    /**
+     * Returns the hash of the pixels.
+     * <p/>
+     * Two pixels are mixed in per step, so the hash costs about one multiplication per two pixels.
+     *
+     * @param pixels the ARGB pixels of the frame.
+     * @return the hash.
+     */
+    public static long hash(int[] pixels) {
+        long h = pixels.length;
+        int i = 0;
+        for (int n = pixels.length - 1; i < n; i += 2) {
+            long pair = ((long) pixels[i] << 32) | (pixels[i + 1] & 0xffffffffL);
+            h = (h ^ pair) * MULTIPLIER;
+            h ^= h >>> 29;
+        }
+        if (i < pixels.length) {
+            h = (h ^ (pixels[i] & 0xffffffffL)) * MULTIPLIER;
+        }
+        h ^= h >>> 32;
+        h *= MULTIPLIER;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Adds the hash of a frame to the hash of a sequence of frames. The result depends on the order of the frames.
+     *
+     * @param sequenceHash the hash of the frames so far.
+     * @param frameHash    the hash of the next frame.
+     * @return the hash of the frames including the next frame.
+     */
+    public static long combine(long sequenceHash, long frameHash) {
+        long h = (sequenceHash ^ frameHash) * MULTIPLIER;
+        return h ^ (h >>> 29);
+    }
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Records which temporary images of a movie have been written, so an interrupted export can be resumed.
+ * <p/>
+ * The manifest is a text file. It starts with the settings needed to recreate the movie, one "name=value" line each,
+ * followed by a "frame number checksum" line for every temporary image that was written completely. The checksum is
+ * the CRC-32 of the image file. Lines are appended and flushed as frames are written, so the manifest stays valid if
+ * the process dies.
+ */
+class FrameManifest {
+
+    private static final String FIRST_LINE = "simovex-manifest 1";
+    private static final String FRAME_PREFIX = "frame ";
+
+    private final File file;
+    private final Map<String, String> settings;
+    private final Map<Integer, Long> checksums = new HashMap<Integer, Long>();
+    private Writer out;
+
+    private FrameManifest(File file, Map<String, String> settings) {
+        this.file = file;
+        this.settings = settings;
+    }
+
+    /**
+     * Creates a new manifest, replacing any existing file.
+     *
+     * @param file     the manifest file.
+     * @param settings the settings of the movie.
+     * @return the manifest, ready to record frames.
+     * @throws IOException if the file could not be written.
+     */
+    public static FrameManifest create(File file, Map<String, String> settings) throws IOException {
+        FrameManifest manifest = new FrameManifest(file, settings);
+        manifest.rewrite(0);
+        return manifest;
+    }
+
+    /**
+     * Reads an existing manifest.
+     *
+     * @param file the manifest file.
+     * @return the manifest. Frames can only be recorded after calling truncate.
+     * @throws IOException if the file could not be read or is not a manifest.
+     */
+    public static FrameManifest read(File file) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            if (!FIRST_LINE.equals(in.readLine())) {
+                throw new IOException(file + " is not a movie manifest.");
+            }
+            FrameManifest manifest = new FrameManifest(file, new LinkedHashMap<String, String>());
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(FRAME_PREFIX)) {
+                    String[] parts = line.split(" ");
+                    // A line that was cut off by a crash is ignored.
+                    if (parts.length == 3 && parts[2].length() == 8) {
+                        manifest.checksums.put(Integer.valueOf(parts[1]), Long.valueOf(parts[2], 16));
+                    }
+                } else {
+                    int equals = line.indexOf('=');
+                    if (equals > 0) {
+                        manifest.settings.put(line.substring(0, equals), line.substring(equals + 1));
+                    }
+                }
+            }
+            return manifest;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Computes the checksum of an image file, as stored in the manifest.
+     */
+    public static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getSetting(String name) {
+        return settings.get(name);
+    }
+
+    /**
+     * Returns the checksum recorded for the frame.
+     *
+     * @param frame the frame number.
+     * @return the checksum, or -1 if the frame was not recorded.
+     */
+    public synchronized long getChecksum(int frame) {
+        Long checksum = checksums.get(frame);
+        return checksum == null ? -1 : checksum;
+    }
+
+    /**
+     * Returns the highest frame number that was recorded, or -1 if no frames were recorded.
+     */
+    public synchronized int getLastFrame() {
+        int last = -1;
+        for (int frame : checksums.keySet()) {
+            last = Math.max(last, frame);
+        }
+        return last;
+    }
+
+    /**
+     * Records a frame that has been written completely.
+     *
+     * @param frame    the frame number.
+     * @param checksum the CRC-32 of the image file.
+     * @throws IOException if the manifest could not be written.
+     */
+    public synchronized void addFrame(int frame, long checksum) throws IOException {
+        checksums.put(frame, checksum);
+        out.write(frameLine(frame, checksum));
+        out.flush();
+    }
+
+    /**
+     * Forgets all frames from the given frame on and rewrites the file, so frames can be recorded again.
+     *
+     * @param frameCount the number of frames to keep.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void truncate(int frameCount) throws IOException {
+        close();
+        rewrite(frameCount);
+    }
+
+    private void rewrite(int frameCount) throws IOException {
+        // Write a new file next to the old one, so a crash while rewriting keeps the old manifest.
+        File newFile = new File(file.getPath() + ".new");
+        Writer writer = new BufferedWriter(new FileWriter(newFile));
+        try {
+            writer.write(FIRST_LINE + "\n");
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                writer.write(setting.getKey() + "=" + setting.getValue() + "\n");
+            }
+            for (int i = 0; i < frameCount; i++) {
+                writer.write(frameLine(i, checksums.get(i)));
+            }
+        } finally {
+            writer.close();
+        }
+        for (Iterator<Integer> it = checksums.keySet().iterator(); it.hasNext();) {
+            if (it.next() >= frameCount) it.remove();
+        }
+        if (!newFile.renameTo(file)) {
+            file.delete();
+            if (!newFile.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        }
+        out = new BufferedWriter(new FileWriter(file, true));
+    }
+
+    private static String frameLine(int frame, long checksum) {
+        return FRAME_PREFIX + frame + " " + String.format("%08x", checksum) + "\n";
+    }
+
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes frames to another sink on a background thread.
+ * <p/>
+ * writeFrame copies the pixels into a buffer from the pool and puts it on a bounded queue, so the caller can render the
+ * next frame while the previous ones are being written. When the queue is full, writeFrame blocks until the writer
+ * thread catches up.
+ */
+class FramePipeline implements FrameSink {
+
+    private static final FrameBufferPool.FrameBuffer END_OF_STREAM = new FrameBufferPool.FrameBuffer(0);
+
+    private final FrameSink target;
+    private final FrameBufferPool pool;
+    private final BlockingQueue<FrameBufferPool.FrameBuffer> queue;
+    private final Thread writer;
+    private volatile Throwable failure;
+    private boolean closed = false;
+
+    /**
+     * Creates the pipeline and starts the writer thread.
+     * <p/>
+     * The pool limits the number of frames in memory: addFrame blocks when all of its buffers are queued or being
+     * written.
+     */
+    public FramePipeline(FrameSink target, FrameBufferPool pool) {
+        this.target = target;
+        this.pool = pool;
+        queue = new ArrayBlockingQueue<FrameBufferPool.FrameBuffer>(pool.getCapacity() + 1);
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeFrames();
+            }
+        }, "simovex-frame-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public void writeFrame(int frame, int[] pixels) throws IOException {
+        checkFailure();
+        try {
+            FrameBufferPool.FrameBuffer buffer = pool.acquire();
+            System.arraycopy(pixels, 0, buffer.pixels, 0, pixels.length);
+            buffer.frame = frame;
+            queue.put(buffer);
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+    }
+
+    private void writeFrames() {
+        while (true) {
+            FrameBufferPool.FrameBuffer buffer;
+            try {
+                buffer = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (buffer == END_OF_STREAM) return;
+            // After a failure, keep taking frames so the caller never blocks on a full queue.
+            if (failure == null) {
+                try {
+                    target.writeFrame(buffer.frame, buffer.pixels);
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            }
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Waits until all queued frames are written, then closes the target sink.
+     *
+     * @throws IOException if the writer thread failed to write a frame.
+     */
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                queue.put(END_OF_STREAM);
+                writer.join();
+            } catch (InterruptedException e) {
+                throw interrupted(e);
+            }
+        }
+        checkFailure();
+        target.close();
+    }
+
+    public void abort() {
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.abort();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure == null) return;
+        if (failure instanceof IOException) throw (IOException) failure;
+        IOException e = new IOException("Error while writing frame: " + failure);
+        e.initCause(failure);
+        throw e;
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        InterruptedIOException ioe = new InterruptedIOException("Interrupted while waiting for the frame writer.");
+        ioe.initCause(e);
+        return ioe;
+    }
+
+}
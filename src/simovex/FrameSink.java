@@ -0,0 +1,49 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+
+/**
+ * Destination for the frames of a movie.
+ * <p/>
+ * Frames are written in order, starting at frame 0. Frames are passed as ARGB pixels, one int per pixel, row by row.
+ * The pixel array passed to writeFrame can be reused by the caller once the method returns.
+ */
+interface FrameSink {
+
+    /**
+     * Writes the pixels as the given frame.
+     *
+     * @param frame  the frame number.
+     * @param pixels the ARGB pixels of the frame. The array has exactly width * height elements.
+     * @throws IOException if the frame could not be written.
+     */
+    void writeFrame(int frame, int[] pixels) throws IOException;
+
+    /**
+     * Finishes writing. After this method returns, all frames have been handed over to ffmpeg.
+     *
+     * @throws IOException if a frame could not be written.
+     */
+    void close() throws IOException;
+
+    /**
+     * Stops writing frames without finishing the export.
+     */
+    void abort();
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves every frame as a numbered image file.
+ * <p/>
+ * If a manifest is given, every image that has been written completely is recorded in it, with its checksum.
+ * <p/>
+ * Images are encoded into a buffer that is reused for later frames and then written to their file at once. A sink
+ * used by several threads keeps one buffer for every frame in flight. Closing or aborting the sink releases the
+ * buffers and the resources of the encoder.
+ */
+class ImageFileSink implements FrameSink {
+
+    private final String fileTemplate;
+    private final FrameEncoder encoder;
+    private final int width, height;
+    private final FrameManifest manifest;
+    private final List<ByteArrayOutputStream> idleBuffers = new ArrayList<ByteArrayOutputStream>();
+
+    public ImageFileSink(String fileTemplate, FrameEncoder encoder, int width, int height) {
+        this(fileTemplate, encoder, width, height, null);
+    }
+
+    public ImageFileSink(String fileTemplate, FrameEncoder encoder, int width, int height, FrameManifest manifest) {
+        this.fileTemplate = fileTemplate;
+        this.encoder = encoder;
+        this.width = width;
+        this.height = height;
+        this.manifest = manifest;
+    }
+
+    public void writeFrame(int frame, int[] pixels) throws IOException {
+        ByteArrayOutputStream buffer = acquireBuffer();
+        try {
+            encoder.encode(pixels, width, height, buffer);
+            writeFile(frame, buffer);
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private void writeFile(int frame, ByteArrayOutputStream buffer) throws IOException {
+        OutputStream file = new FileOutputStream(String.format(fileTemplate, frame));
+        CheckedOutputStream checked = null;
+        if (manifest != null) {
+            checked = new CheckedOutputStream(file, new CRC32());
+            file = checked;
+        }
+        try {
+            buffer.writeTo(file);
+        } finally {
+            file.close();
+        }
+        if (checked != null) {
+            manifest.addFrame(frame, checked.getChecksum().getValue());
+        }
+    }
+
+    private ByteArrayOutputStream acquireBuffer() {
+        synchronized (idleBuffers) {
+            if (!idleBuffers.isEmpty()) {
+                return idleBuffers.remove(idleBuffers.size() - 1);
+            }
+        }
+        return new ByteArrayOutputStream(64 * 1024);
+    }
+
+    private void releaseBuffer(ByteArrayOutputStream buffer) {
+        buffer.reset();
+        synchronized (idleBuffers) {
+            idleBuffers.add(buffer);
+        }
+    }
+
+    public void close() {
+        dispose();
+    }
+
+    public void abort() {
+        dispose();
+    }
+
+    private void dispose() {
+        synchronized (idleBuffers) {
+            idleBuffers.clear();
+        }
+        encoder.dispose();
+    }
+
+}
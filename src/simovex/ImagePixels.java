@@ -0,0 +1,135 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.*;
+
+/**
+ * Extracts the ARGB pixels of an image.
+ * <p/>
+ * The common BufferedImage types are read straight from their backing arrays. A TYPE_INT_ARGB image with the default
+ * layout is not copied at all: its own pixel array is returned. Other image types fall back to getRGB or to drawing
+ * the image, which goes through the color model for every pixel.
+ */
+class ImagePixels {
+
+    private ImagePixels() {
+    }
+
+    /**
+     * Returns the ARGB pixels of the image, one int per pixel, row by row.
+     *
+     * @param image  the image.
+     * @param buffer an array of width * height ints, used when the pixels need to be converted.
+     * @param bufferImage a TYPE_INT_ARGB image that draws into the buffer, used for images that are not buffered.
+     * @return either the buffer or the backing array of the image. The caller should not modify the returned array.
+     */
+    public static int[] extract(RenderedImage image, int[] buffer, BufferedImage bufferImage) {
+        if (image instanceof BufferedImage) {
+            BufferedImage img = (BufferedImage) image;
+            int size = img.getWidth() * img.getHeight();
+            if (img.getType() == BufferedImage.TYPE_INT_ARGB && isPackedInt(img)) {
+                int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+                return data.length == size ? data : copy(data, buffer, size);
+            }
+        }
+        extract(image, new Rectangle(0, 0, image.getWidth(), image.getHeight()), buffer, bufferImage);
+        return buffer;
+    }
+
+    /**
+     * Copies the ARGB pixels in a region of the image into the same region of the buffer.
+     * <p/>
+     * Pixels outside of the region are left untouched, so only the part of a frame that changed needs to be converted.
+     *
+     * @param image  the image.
+     * @param region the region to copy. It must lie within the image.
+     * @param buffer an array of width * height ints, that receives the pixels.
+     * @param bufferImage a TYPE_INT_ARGB image that draws into the buffer, used for images that are not buffered.
+     */
+    public static void extract(RenderedImage image, Rectangle region, int[] buffer, BufferedImage bufferImage) {
+        if (!(image instanceof BufferedImage)) {
+            Graphics2D g = bufferImage.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.clip(region);
+            g.drawRenderedImage(image, new AffineTransform());
+            g.dispose();
+            return;
+        }
+        BufferedImage img = (BufferedImage) image;
+        int width = img.getWidth();
+        int type = img.getType();
+        int x0 = region.x, x1 = region.x + region.width;
+        int y0 = region.y, y1 = region.y + region.height;
+        if ((type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB) && isPackedInt(img)) {
+            int[] data = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            int alpha = type == BufferedImage.TYPE_INT_RGB ? 0xff000000 : 0;
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * width + x0, end = y * width + x1; i < end; i++) {
+                    buffer[i] = data[i] | alpha;
+                }
+            }
+        } else if (type == BufferedImage.TYPE_3BYTE_BGR && isPackedByte(img)) {
+            byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * width + x0, end = y * width + x1, j = i * 3; i < end; i++, j += 3) {
+                    buffer[i] = 0xff000000 | (data[j + 2] & 0xff) << 16 | (data[j + 1] & 0xff) << 8 | (data[j] & 0xff);
+                }
+            }
+        } else if (type == BufferedImage.TYPE_4BYTE_ABGR && isPackedByte(img)) {
+            byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            for (int y = y0; y < y1; y++) {
+                for (int i = y * width + x0, end = y * width + x1, j = i * 4; i < end; i++, j += 4) {
+                    buffer[i] = (data[j] & 0xff) << 24 | (data[j + 3] & 0xff) << 16 | (data[j + 2] & 0xff) << 8 | (data[j + 1] & 0xff);
+                }
+            }
+        } else {
+            img.getRGB(x0, y0, region.width, region.height, buffer, y0 * width + x0, width);
+        }
+    }
+
+    /**
+     * Checks if the image stores one int per pixel, row by row, without padding.
+     */
+    private static boolean isPackedInt(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer() instanceof DataBufferInt && raster.getDataBuffer().getOffset() == 0
+                && sampleModel instanceof SinglePixelPackedSampleModel
+                && ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride() == img.getWidth();
+    }
+
+    /**
+     * Checks if the image stores its bands as consecutive bytes, row by row, without padding.
+     */
+    private static boolean isPackedByte(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        return raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+                && raster.getDataBuffer() instanceof DataBufferByte && raster.getDataBuffer().getOffset() == 0
+                && sampleModel instanceof ComponentSampleModel
+                && ((ComponentSampleModel) sampleModel).getScanlineStride() == img.getWidth() * sampleModel.getNumBands();
+    }
+
+    private static int[] copy(int[] data, int[] buffer, int size) {
+        System.arraycopy(data, 0, buffer, 0, size);
+        return buffer;
+    }
+
+}
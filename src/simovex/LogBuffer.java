@@ -0,0 +1,53 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+/**
+ * Keeps the last lines of a log, so memory use stays bounded no matter how long a process runs.
+ */
+class LogBuffer {
+
+    private final String[] lines;
+    private int start = 0;
+    private int count = 0;
+
+    public LogBuffer(int capacity) {
+        lines = new String[capacity];
+    }
+
+    public synchronized void add(String line) {
+        if (count < lines.length) {
+            lines[(start + count) % lines.length] = line;
+            count++;
+        } else {
+            lines[start] = line;
+            start = (start + 1) % lines.length;
+        }
+    }
+
+    /**
+     * Returns the retained lines, oldest first, separated by newlines.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(lines[(start + i) % lines.length]).append('\n');
+        }
+        return sb.toString();
+    }
+
+}
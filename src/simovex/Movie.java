@@ -15,15 +15,25 @@
  */
 package simovex;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.RenderedImage;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 
 /**
  * Main class used for movie export.
@@ -47,12 +57,79 @@ public class Movie {
         LOW, MEDIUM, HIGH, BEST
     }
 
+    /**
+     * How frames are handed to ffmpeg.
+     * <p/>
+     * TEMPORARY_FILES saves every frame as a temporary image (see IntermediateFormat) that is encoded when calling
+     * save().
+     * STREAMING starts ffmpeg when the first frame is added and writes the raw pixels of every frame to its
+     * standard input, so no temporary files are created.
+     * SPOOL appends the raw pixels of every frame to a single temporary file that is encoded when calling save().
+     * This avoids creating a file per frame and the cost of PNG compression, at the expense of width * height * 4
+     * bytes of disk space per frame.
+     */
+    public static enum ExportMode {
+        TEMPORARY_FILES, STREAMING, SPOOL
+    }
+
+    /**
+     * The image format of the temporary files in TEMPORARY_FILES mode.
+     * <p/>
+     * PNG uses ImageIO with its default compression. FAST_PNG uses the fastest compression level without row
+     * filtering, which creates larger files in a fraction of the time. BMP and PAM are not compressed at all.
+     */
+    public static enum IntermediateFormat {
+        PNG, FAST_PNG, BMP, PAM
+    }
+
+    /**
+     * The container of a movie that is written to a channel instead of a file.
+     * <p/>
+     * Both formats can be written without seeking back. FRAGMENTED_MP4 writes the movie header first and the frames
+     * in fragments that start at key frames. MPEG_TS is the transport stream used for broadcasting.
+     */
+    public static enum StreamFormat {
+        FRAGMENTED_MP4, MPEG_TS
+    }
+
+    /**
+     * A movie format that can be played while it is being written.
+     * <p/>
+     * FRAGMENTED_MP4 writes a single MP4 file with the movie header first and the frames in fragments. HLS writes an
+     * HLS playlist with MPEG-TS segments, HLS_FMP4 one with fragmented MP4 segments. DASH writes a DASH manifest with
+     * fragmented MP4 segments. The playlist or manifest is updated after every segment.
+     */
+    public static enum LiveFormat {
+        FRAGMENTED_MP4, HLS, HLS_FMP4, DASH
+    }
+
+    /**
+     * The pixel format of the raw frames in STREAMING and SPOOL mode.
+     * <p/>
+     * BGRA passes the pixels unchanged, 4 bytes per pixel, and leaves the conversion to ffmpeg. YUV420P converts the
+     * pixels in Java to the planar format the codecs encode, 1.5 bytes per pixel, which reduces the data sent to
+     * ffmpeg by 62%. The alpha channel is lost.
+     */
+    public static enum RawPixelFormat {
+        BGRA, YUV420P
+    }
+
 
     private static final File FFMPEG_BINARY;
     private static final String TEMPORARY_FILE_PREFIX = "sme";
+    private static final int DEFAULT_FRAME_RATE = 25;
+    // The number of frames in a segment stored in the segment cache.
+    private static final int SEGMENT_LENGTH = 250;
+    private static final String PIPE_OUTPUT = "pipe:1";
     private static final String FFMPEG_PRESET_TEMPLATE = "res/ffpresets/libx264-%s.ffpreset";
     private static final Map<CodecType, String> codecTypeMap;
     private static final Map<CompressionQuality, String> compressionQualityMap;
+    // The libx264 preset and constant rate factor for ffmpeg builds that do not read preset files.
+    private static final Map<CompressionQuality, String> x264PresetMap;
+    private static final Map<CompressionQuality, Integer> x264RateFactorMap;
+    private static FfmpegVersion ffmpegVersion;
+    // ffmpeg adds these to the pass log file name; libx264 writes a second file.
+    private static final String[] PASS_LOG_SUFFIXES = {"-0.log.mbtree", "-0.log"};
 
 
     static {
@@ -74,12 +151,32 @@ public class Movie {
         codecTypeMap.put(CodecType.H264, "libx264");
         codecTypeMap.put(CodecType.MPEG4, "mpeg4");
         codecTypeMap.put(CodecType.RAW, "rawvideo");
+        codecTypeMap.put(CodecType.THEORA, "libtheora");
         codecTypeMap.put(CodecType.WMV, "wmv");
         compressionQualityMap = new HashMap<CompressionQuality, String>(CompressionQuality.values().length);
         compressionQualityMap.put(CompressionQuality.LOW, "baseline");
         compressionQualityMap.put(CompressionQuality.MEDIUM, "default");
         compressionQualityMap.put(CompressionQuality.HIGH, "hq");
         compressionQualityMap.put(CompressionQuality.BEST, "lossless_max");
+        x264PresetMap = new HashMap<CompressionQuality, String>(CompressionQuality.values().length);
+        x264PresetMap.put(CompressionQuality.LOW, "veryfast");
+        x264PresetMap.put(CompressionQuality.MEDIUM, "medium");
+        x264PresetMap.put(CompressionQuality.HIGH, "slow");
+        x264PresetMap.put(CompressionQuality.BEST, "veryslow");
+        x264RateFactorMap = new HashMap<CompressionQuality, Integer>(CompressionQuality.values().length);
+        x264RateFactorMap.put(CompressionQuality.LOW, 28);
+        x264RateFactorMap.put(CompressionQuality.MEDIUM, 23);
+        x264RateFactorMap.put(CompressionQuality.HIGH, 18);
+    }
+
+    /**
+     * Returns the version of the ffmpeg binary. ffmpeg is run the first time this is called.
+     */
+    static synchronized FfmpegVersion getFfmpegVersion() {
+        if (ffmpegVersion == null) {
+            ffmpegVersion = FfmpegVersion.probe(FFMPEG_BINARY);
+        }
+        return ffmpegVersion;
     }
 
     private String movieFilename;
@@ -87,8 +184,63 @@ public class Movie {
     private CodecType codecType;
     private CompressionQuality compressionQuality;
     private boolean verbose;
+    private ProgressListener progressListener;
+    private int threads = 0;
+    private int bitRate = 0;
+    private ComplexityProbe complexityProbe;
+    private EncoderPool encoderPool;
+    private ExportMode exportMode = ExportMode.TEMPORARY_FILES;
+    private IntermediateFormat intermediateFormat = IntermediateFormat.PNG;
+    private RawPixelFormat rawPixelFormat = RawPixelFormat.BGRA;
+    private FrameEncoder frameEncoder;
     private int frameCount = 0;
+    private int storedFrameCount = 0;
+    // The presentation time of every stored frame, and the end of the last frame, in seconds.
+    private double[] frameTimes = new double[64];
+    private double endTime = 0;
+    private double lastFrameTime;
+    private boolean timestamped = false;
+    private int frameRateNumerator = DEFAULT_FRAME_RATE;
+    private int frameRateDenominator = 1;
+    private boolean collapseDuplicateFrames = false;
+    private long previousFrameHash;
+    private long contentHash = 0;
+    private boolean twoPass = false;
+    private int chunkCount = 0;
+    private int chunksWritten = 0;
+    private int threadsPerChunk = 0;
+    private SegmentCache segmentCache;
+    private long[] frameHashes;
+    private boolean resumable = false;
+    private final List<AudioTrack> audioTracks = new ArrayList<AudioTrack>();
+    private WritableByteChannel outputChannel;
+    private StreamFormat streamFormat;
+    private LiveFormat liveFormat;
+    private double liveSegmentDuration;
+    private final List<Rendition> renditions = new ArrayList<Rendition>();
+    // The PCM track that is written to the standard input of ffmpeg, or -1.
+    private int standardInputTrack = -1;
+    private FrameManifest manifest;
+    private File passLogCache;
+    // The output of the chunk or first pass that failed, for the export result.
+    private String failedOutput = "";
+    private String temporaryFilePrefix;
     private String temporaryFileTemplate;
+    private int frameQueueSize = 0;
+    private ExecutorService encoderService;
+    private FrameSink frameSink;
+    private FrameBufferPool framePool;
+    private BufferedImage frameBufferImage;
+    private int[] frameBuffer;
+    private boolean frameBufferCurrent = false;
+    private FfmpegProcess streamingProcess;
+    // True if the streaming process came from the encoder pool, and writes to a temporary file.
+    private boolean pooledProcess = false;
+    private volatile FfmpegProcess runningProcess;
+    private final List<FfmpegProcess> runningChunks = new ArrayList<FfmpegProcess>();
+    private volatile boolean aborted = false;
+    private boolean exportStarted = false;
+    private long processStartTime;
 
     public Movie(String movieFilename, int width, int height) {
         this(movieFilename, width, height, CodecType.H264, CompressionQuality.BEST, false);
@@ -105,11 +257,13 @@ public class Movie {
         // We generate a temporary file, then use that as the prefix for our own files.
         try {
             File tempFile = File.createTempFile(TEMPORARY_FILE_PREFIX, "");
-            temporaryFileTemplate = tempFile.getPath() + "-%05d.png";
+            temporaryFilePrefix = tempFile.getPath();
             tempFile.delete();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        setIntermediateFormat(IntermediateFormat.PNG);
+        complexityProbe = new ComplexityProbe(width, height);
     }
 
     public boolean isVerbose() {
@@ -120,122 +274,1862 @@ public class Movie {
         this.verbose = verbose;
     }
 
-    public int getFrameCount() {
-        return frameCount;
+    public ProgressListener getProgressListener() {
+        return progressListener;
     }
 
-    public String getMovieFilename() {
-        return movieFilename;
+    /**
+     * Sets the listener that receives the progress reports of ffmpeg while the movie is encoded.
+     * <p/>
+     * In streaming mode, encoding happens while frames are added; otherwise it happens during save().
+     *
+     * @param progressListener the listener, or null.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
     }
 
-    public File getMovieFile() {
-        return new File(movieFilename);
+    /**
+     * Returns the target bit rate of the movie.
+     * <p/>
+     * Unless a bit rate was set, it is estimated from the size of the movie, the frame rate, the codec and the
+     * compression quality. The estimate also takes into account how much the frames added so far differ from each
+     * other, so it is more accurate after all frames have been added. In streaming mode, the bit rate is fixed when
+     * the first frame is added. Single-pass H.264 movies use the quality presets instead of an estimated bit rate.
+     *
+     * @return the bit rate in kbit/s, or 0 for lossless codecs.
+     */
+    public int getBitRate() {
+        if (bitRate > 0) return bitRate;
+        return BitRateModel.bitRate(codecType, compressionQuality, width, height, getFrameRate(),
+                complexityProbe.getComplexity());
     }
 
-    public File temporaryFileForFrame(int frame) {
-        return new File(String.format(temporaryFileTemplate, frame));
+    /**
+     * Sets the target bit rate of the movie.
+     * <p/>
+     * An H.264 movie with the BEST quality is encoded losslessly, which has no bit rate; with a bit rate set, it is
+     * encoded with settings that aim for the bit rate instead, such as those of the HIGH quality for old ffmpeg
+     * builds.
+     *
+     * @param bitRate the bit rate in kbit/s, or 0 to estimate the bit rate.
+     */
+    public void setBitRate(int bitRate) {
+        if (bitRate < 0) {
+            throw new IllegalArgumentException("The bit rate cannot be negative.");
+        }
+        this.bitRate = bitRate;
+    }
+
+    public int getThreads() {
+        return threads;
     }
 
     /**
-     * Add the image to the movie.
+     * Sets the number of threads ffmpeg uses to encode the movie.
      * <p/>
-     * The image size needs to be exactly the same size as the movie.
+     * The default of zero lets ffmpeg decide, which usually means it uses all cores. Limit the number of threads when
+     * encoding several movies at the same time. In streaming mode, ffmpeg starts when the first frame is added, so the
+     * number of threads needs to be set before that. A movie encoded in chunks divides the threads between its ffmpeg
+     * processes.
+     *
+     * @param threads the number of threads, or zero for the ffmpeg default.
+     * @see ExportScheduler
+     */
+    public void setThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("The number of threads cannot be negative.");
+        }
+        this.threads = threads;
+    }
+
+    public EncoderPool getEncoderPool() {
+        return encoderPool;
+    }
+
+    /**
+     * Sets the pool of ffmpeg processes used in streaming mode.
      * <p/>
-     * Internally, this saves the image to a temporary image and increases the frame counter. Temporary images are
-     * cleaned up when calling save() or if an error occurs.
+     * With a pool, the movie uses an ffmpeg process that was started in advance, which makes a difference for short
+     * movies where starting ffmpeg takes a large part of the export time. The pool is not shut down by the movie.
      *
-     * @param img the image to add to the movie.
+     * @param encoderPool the pool, or null to start a new ffmpeg process for this movie.
      */
-    public void addFrame(RenderedImage img) {
-        if (img.getWidth() != width || img.getHeight() != height) {
-            throw new RuntimeException("Given image does not have the same size as the movie.");
+    public void setEncoderPool(EncoderPool encoderPool) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The encoder pool cannot be changed after frames have been added.");
         }
-        try {
-            ImageIO.write(img, "png", temporaryFileForFrame(frameCount));
-            frameCount++;
-        } catch (IOException e) {
-            cleanupAndThrowException(e);
+        this.encoderPool = encoderPool;
+    }
+
+    public ExportMode getExportMode() {
+        return exportMode;
+    }
+
+    /**
+     * Sets how frames are handed to ffmpeg. The mode can only be changed before the first frame is added.
+     *
+     * @param exportMode the new export mode.
+     */
+    public void setExportMode(ExportMode exportMode) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The export mode cannot be changed after frames have been added.");
+        }
+        if (exportMode == ExportMode.STREAMING && twoPass) {
+            throw new IllegalStateException("Two-pass encoding is not available in streaming mode.");
         }
+        if (exportMode != ExportMode.TEMPORARY_FILES) {
+            checkNoSegmentCache("The " + exportMode + " export mode");
+        }
+        this.exportMode = exportMode;
+    }
+
+    public IntermediateFormat getIntermediateFormat() {
+        return intermediateFormat;
     }
 
     /**
-     * Finishes the export and save the movie.
+     * Sets the image format of the temporary files. The format can only be changed before the first frame is added.
+     *
+     * @param intermediateFormat the new format.
      */
-    public void save() {
-        StringWriter sw = new StringWriter();
-        PrintWriter out = new PrintWriter(sw, true);
+    public void setIntermediateFormat(IntermediateFormat intermediateFormat) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The intermediate format cannot be changed after frames have been added.");
+        }
+        frameEncoder = createFrameEncoder(intermediateFormat);
+        this.intermediateFormat = intermediateFormat;
+        temporaryFileTemplate = temporaryFilePrefix + "-%05d." + frameEncoder.getExtension();
+    }
 
-        String type = codecTypeMap.get(codecType);
-        int bitRate = bitRateForSize(width, height);
-        String quality = compressionQualityMap.get(compressionQuality);
+    public RawPixelFormat getRawPixelFormat() {
+        return rawPixelFormat;
+    }
 
+    /**
+     * Sets the pixel format of the raw frames in STREAMING and SPOOL mode. The format can only be changed before the
+     * first frame is added.
+     * <p/>
+     * With YUV420P, the encoder service, if set, is used to convert large frames in several bands at the same time.
+     *
+     * @param rawPixelFormat the new pixel format.
+     */
+    public void setRawPixelFormat(RawPixelFormat rawPixelFormat) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The raw pixel format cannot be changed after frames have been added.");
+        }
+        this.rawPixelFormat = rawPixelFormat;
+    }
 
-        ArrayList<String> commandList = new ArrayList<String>();
-        commandList.add(FFMPEG_BINARY.getAbsolutePath());
-        commandList.add("-y"); // Overwrite target if exists
-        commandList.add("-i");
-        commandList.add(temporaryFileTemplate); // Input images
-        commandList.add("-vcodec");
-        commandList.add(type); // Target video codec
-        if (codecType == CodecType.H264) {
-            commandList.add("-fpre");
-            commandList.add(String.format(FFMPEG_PRESET_TEMPLATE, quality));
-        } else {
-            commandList.add("-b");
-            commandList.add(bitRate + "k"); // Target bit rate
+    static FrameEncoder createFrameEncoder(IntermediateFormat intermediateFormat) {
+        switch (intermediateFormat) {
+            case FAST_PNG:
+                return new FastPngFrameEncoder(Deflater.BEST_SPEED);
+            case BMP:
+                return new BmpFrameEncoder();
+            case PAM:
+                return new PamFrameEncoder();
+            default:
+                return new PngFrameEncoder();
+        }
+    }
+
+    /**
+     * Returns the frame rate in frames per second.
+     */
+    public double getFrameRate() {
+        return (double) frameRateNumerator / frameRateDenominator;
+    }
+
+    /**
+     * Returns the frame rate as ffmpeg expects it: a whole number, or a fraction such as "30000/1001".
+     */
+    public String getFrameRateString() {
+        return frameRateDenominator == 1 ? String.valueOf(frameRateNumerator) : frameRateNumerator + "/" + frameRateDenominator;
+    }
+
+    /**
+     * Sets the frame rate of the movie. The frame rate can only be changed before the first frame is added.
+     * <p/>
+     * The rate is rounded to a thousandth of a frame per second; use setFrameRate(int, int) for rates such as
+     * 30000/1001 that cannot be written exactly.
+     *
+     * @param frameRate the number of frames per second.
+     */
+    public void setFrameRate(double frameRate) {
+        setFrameRate((int) Math.round(frameRate * 1000), 1000);
+    }
+
+    /**
+     * Sets the frame rate of the movie as a fraction. The frame rate can only be changed before the first frame is
+     * added. The default frame rate is 25 frames per second.
+     *
+     * @param numerator   the number of frames.
+     * @param denominator the number of seconds they take.
+     */
+    public void setFrameRate(int numerator, int denominator) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The frame rate cannot be changed after frames have been added.");
+        }
+        if (numerator <= 0 || denominator <= 0) {
+            throw new IllegalArgumentException("The frame rate must be positive.");
+        }
+        int a = numerator, b = denominator;
+        while (b != 0) {
+            int remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        frameRateNumerator = numerator / a;
+        frameRateDenominator = denominator / a;
+    }
+
+    public boolean isCollapseDuplicateFrames() {
+        return collapseDuplicateFrames;
+    }
+
+    /**
+     * Sets if consecutive identical frames are stored once.
+     * <p/>
+     * When enabled, every frame is hashed. A frame that is identical to the previous one is not stored again;
+     * instead the previous image is shown longer, using a variable frame rate. This saves both the time to write
+     * the temporary image and the time to encode it, which helps for content with long still parts, such as
+     * slideshows. Only used in the TEMPORARY_FILES export mode. The images are passed to ffmpeg with their
+     * durations through the concat demuxer, which needs ffmpeg 4.1 or later.
+     *
+     * @param collapseDuplicateFrames true to store identical consecutive frames once.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old for variable frame durations.
+     */
+    public void setCollapseDuplicateFrames(boolean collapseDuplicateFrames) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("Collapsing duplicate frames cannot be changed after frames have been added.");
         }
-        commandList.add(movieFilename); // Target file name
+        if (collapseDuplicateFrames) {
+            checkNoSegmentCache("Collapsing duplicate frames");
+            getFfmpegVersion().require("Collapsing duplicate frames");
+        }
+        this.collapseDuplicateFrames = collapseDuplicateFrames;
+    }
+
+    public SegmentCache getSegmentCache() {
+        return segmentCache;
+    }
 
-        ProcessBuilder pb = new ProcessBuilder(commandList);
-        if (verbose) {
-            for (String cmd : pb.command()) {
-                System.out.print(cmd + " ");
+    /**
+     * Sets the cache of encoded segments, to encode only the parts of a movie that changed since an earlier export.
+     * <p/>
+     * When set, every frame is hashed, and the movie is encoded in segments of a fixed number of frames, as with
+     * setChunkCount. A segment whose frames and settings match a segment in the cache is copied from the cache
+     * instead of being encoded. The chunk count sets how many segments are encoded at the same time. Every segment
+     * is made of one temporary image per frame, so the cache is only available in TEMPORARY_FILES mode, and cannot
+     * be combined with collapsed duplicate frames, timestamps, two-pass encoding or renditions. Joining the segments
+     * needs ffmpeg 4.1 or later.
+     * <p/>
+     * The bit rate is one of the settings. An estimated bit rate depends on all frames of the movie, so for codecs
+     * other than H.264, set a bit rate to keep unchanged segments valid when other parts of the movie change.
+     *
+     * @param segmentCache the cache, or null to encode the whole movie.
+     * @throws IllegalStateException         if the movie uses a setting that the cache cannot be combined with.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old to join segments.
+     */
+    public void setSegmentCache(SegmentCache segmentCache) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The segment cache cannot be changed after frames have been added.");
+        }
+        if (segmentCache != null) {
+            if (exportMode != ExportMode.TEMPORARY_FILES) {
+                throw new IllegalStateException("The segment cache is only available in TEMPORARY_FILES mode.");
             }
-            System.out.println();
+            if (collapseDuplicateFrames || twoPass || !renditions.isEmpty()) {
+                throw new IllegalStateException("The segment cache cannot be combined with collapsed duplicate frames, two-pass encoding or renditions.");
+            }
+            getFfmpegVersion().require("The segment cache");
+        }
+        this.segmentCache = segmentCache;
+    }
+
+    /**
+     * Fails if the movie has a segment cache, which encodes every frame as one image in fixed segments.
+     *
+     * @param setting the setting that cannot be combined with the cache, for the error message.
+     */
+    private void checkNoSegmentCache(String setting) {
+        if (segmentCache != null) {
+            throw new IllegalStateException(setting + " cannot be combined with a segment cache.");
+        }
+    }
+
+    public WritableByteChannel getOutputChannel() {
+        return outputChannel;
+    }
+
+    public StreamFormat getStreamFormat() {
+        return streamFormat;
+    }
+
+    /**
+     * Sets the channel the movie is written to, instead of the movie file.
+     * <p/>
+     * ffmpeg writes the movie to its standard output, which is copied to the channel by a background thread while
+     * the movie is encoded. This way, the movie can be uploaded while it is encoded, without a copy on disk. The
+     * movie file name is then only used to name the movie; the file is not written, and the export result reports a
+     * file size of 0. The channel is not closed.
+     * The encoder pool is not used for movies that are written to a channel. The channel can only be changed before
+     * the first frame is added. Writing a streamable movie to standard output needs ffmpeg 4.1 or later.
+     *
+     * @param outputChannel the channel, or null to write the movie file.
+     * @param streamFormat  the container of the movie.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old.
+     */
+    public void setOutputChannel(WritableByteChannel outputChannel, StreamFormat streamFormat) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The output channel cannot be changed after frames have been added.");
+        }
+        if (outputChannel != null && liveFormat != null) {
+            throw new IllegalStateException("A movie with live output cannot be written to a channel.");
+        }
+        if (outputChannel != null && streamFormat == null) {
+            throw new IllegalArgumentException("A stream format is needed to write to a channel.");
+        }
+        if (outputChannel != null) {
+            getFfmpegVersion().require("Writing to a channel");
+        }
+        this.outputChannel = outputChannel;
+        this.streamFormat = streamFormat;
+    }
+
+    public LiveFormat getLiveFormat() {
+        return liveFormat;
+    }
+
+    public double getLiveSegmentDuration() {
+        return liveSegmentDuration;
+    }
+
+    /**
+     * Sets a movie format that can be played while the movie is being encoded.
+     * <p/>
+     * The movie file name is the MP4 file, the HLS playlist (.m3u8) or the DASH manifest (.mpd). Segments are written
+     * next to it, named after it, as soon as they are encoded, and the playlist is updated after every segment, so
+     * viewers can start watching before the export has finished. A key frame is forced at the start of every segment.
+     * Use the STREAMING export mode to encode while frames are added; in the other modes, encoding starts at save().
+     * The encoder pool is not used for live output.
+     * When an export is cancelled, only the movie file itself is removed, not the segments. Live output needs
+     * ffmpeg 4.1 or later.
+     *
+     * @param liveFormat      the format, or null to write a normal movie file.
+     * @param segmentDuration the duration of a segment or fragment in seconds.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old.
+     */
+    public void setLiveOutput(LiveFormat liveFormat, double segmentDuration) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The live output cannot be changed after frames have been added.");
+        }
+        if (liveFormat != null && outputChannel != null) {
+            throw new IllegalStateException("A movie that is written to a channel cannot have live output.");
+        }
+        if (liveFormat != null && !(segmentDuration > 0)) {
+            throw new IllegalArgumentException("The segment duration must be positive.");
+        }
+        if (liveFormat != null) {
+            getFfmpegVersion().require("Live output");
+        }
+        this.liveFormat = liveFormat;
+        this.liveSegmentDuration = segmentDuration;
+    }
+
+    public List<Rendition> getRenditions() {
+        return new ArrayList<Rendition>(renditions);
+    }
+
+    /**
+     * Adds a rendition that is encoded together with the movie.
+     * <p/>
+     * The frames are scaled to the size of every rendition by the ffmpeg process that encodes the movie, so they
+     * are added only once for all renditions. Every rendition gets the audio tracks of the movie. The movie is not
+     * encoded in chunks when it has renditions, and the encoder pool is not used. In two-pass mode only the movie
+     * itself uses two passes. An H.264 rendition only aims for a bit rate if one was set; at the BEST quality, a
+     * rendition with a bit rate is not encoded losslessly. The rendition files are removed when the export is
+     * cancelled. Renditions need ffmpeg 4.1 or later.
+     *
+     * @param rendition the rendition.
+     * @throws UnsupportedOperationException if the ffmpeg binary is older than 4.1, which has no filter graphs.
+     */
+    public void addRendition(Rendition rendition) {
+        if (exportMode == ExportMode.STREAMING && frameCount > 0) {
+            throw new IllegalStateException("In streaming mode, renditions cannot be added after frames have been added.");
+        }
+        if (exportStarted) {
+            throw new IllegalStateException("Renditions cannot be added after the export has started.");
+        }
+        checkNoSegmentCache("Encoding renditions");
+        getFfmpegVersion().require("Encoding renditions");
+        renditions.add(rendition);
+    }
+
+    public List<AudioTrack> getAudioTracks() {
+        return new ArrayList<AudioTrack>(audioTracks);
+    }
+
+    /**
+     * Adds an audio track that is muxed into the movie in the same ffmpeg run that encodes the video.
+     * <p/>
+     * Tracks are added to the movie in the order they were added. PCM samples are written to ffmpeg while the movie
+     * is encoded. Only one stream can be passed this way, through the standard input of ffmpeg; the samples of
+     * other PCM tracks are first written to a temporary file. In STREAMING mode the standard input carries the
+     * frames, so tracks must be added before the first frame, all PCM samples are read when the first frame is added,
+     * and the encoder pool is not used.
+     * Mapping the audio tracks into the movie needs ffmpeg 4.1 or later.
+     *
+     * @param track the audio track.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old to map the tracks.
+     */
+    public void addAudioTrack(AudioTrack track) {
+        if (exportMode == ExportMode.STREAMING && frameCount > 0) {
+            throw new IllegalStateException("In streaming mode, audio tracks cannot be added after frames have been added.");
+        }
+        if (exportStarted) {
+            throw new IllegalStateException("Audio tracks cannot be added after the export has started.");
+        }
+        getFfmpegVersion().require("Muxing audio tracks");
+        audioTracks.add(track);
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Sets if the export can be resumed after the process stopped.
+     * <p/>
+     * A resumable movie records every temporary image in a manifest file, with the settings of the movie and a
+     * checksum of the image. If the process dies before the movie is saved, resume() recreates the movie from the
+     * manifest with the images that are still intact, and frames can be added from there on. The caller should keep
+     * the location of the manifest file. Only used in TEMPORARY_FILES mode; duplicate frames are not collapsed in a
+     * resumable movie.
+     *
+     * @param resumable true to record the temporary images in a manifest.
+     * @see #getManifestFile()
+     * @see #resume(java.io.File)
+     */
+    public void setResumable(boolean resumable) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("Resumable export cannot be changed after frames have been added.");
         }
-        pb.redirectErrorStream(true);
-        Process p;
+        this.resumable = resumable;
+    }
+
+    /**
+     * Returns the manifest file of a resumable movie. The file is created when the first frame is added.
+     *
+     * @return the manifest file.
+     */
+    public File getManifestFile() {
+        return manifest != null ? manifest.getFile() : new File(temporaryFilePrefix + ".manifest");
+    }
+
+    private Map<String, String> getManifestSettings() {
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        settings.put("movie", movieFilename);
+        settings.put("width", String.valueOf(width));
+        settings.put("height", String.valueOf(height));
+        settings.put("codec", codecType.name());
+        settings.put("quality", compressionQuality.name());
+        settings.put("format", intermediateFormat.name());
+        settings.put("prefix", temporaryFilePrefix);
+        settings.put("frameRateNumerator", String.valueOf(frameRateNumerator));
+        settings.put("frameRateDenominator", String.valueOf(frameRateDenominator));
+        return settings;
+    }
+
+    /**
+     * Recreates a resumable movie whose export was interrupted.
+     * <p/>
+     * The temporary images recorded in the manifest are checked in order, up to the first image that is missing or
+     * does not match its checksum. The returned movie contains the frames before that image; getFrameCount() returns
+     * the number of the next frame to add.
+     *
+     * @param manifestFile the manifest file of the interrupted movie.
+     * @return the movie.
+     * @see #setResumable(boolean)
+     */
+    public static Movie resume(File manifestFile) {
         try {
-            p = pb.start();
-            p.getOutputStream().close();
-            BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null)
-                out.println(line);
-            p.waitFor();
-            if (verbose) {
-                System.out.println(sw.toString());
+            FrameManifest manifest = FrameManifest.read(manifestFile);
+            Movie movie = new Movie(manifest.getSetting("movie"),
+                    Integer.parseInt(manifest.getSetting("width")), Integer.parseInt(manifest.getSetting("height")),
+                    CodecType.valueOf(manifest.getSetting("codec")),
+                    CompressionQuality.valueOf(manifest.getSetting("quality")), false);
+            movie.temporaryFilePrefix = manifest.getSetting("prefix");
+            movie.setIntermediateFormat(IntermediateFormat.valueOf(manifest.getSetting("format")));
+            movie.resumable = true;
+            int frames = 0;
+            while (true) {
+                long checksum = manifest.getChecksum(frames);
+                File frameFile = movie.temporaryFileForFrame(frames);
+                if (checksum < 0 || !frameFile.exists() || FrameManifest.checksum(frameFile) != checksum) break;
+                frames++;
             }
+            // Later frames are written again, so images that survived after a broken one are not needed.
+            for (int i = frames; i <= manifest.getLastFrame(); i++) {
+                movie.temporaryFileForFrame(i).delete();
+            }
+            manifest.truncate(frames);
+            movie.manifest = manifest;
+            movie.setFrameRate(Integer.parseInt(manifest.getSetting("frameRateNumerator")),
+                    Integer.parseInt(manifest.getSetting("frameRateDenominator")));
+            movie.frameTimes = new double[Math.max(frames, movie.frameTimes.length)];
+            for (int i = 0; i < frames; i++) {
+                movie.frameTimes[i] = i / movie.getFrameRate();
+            }
+            movie.endTime = frames / movie.getFrameRate();
+            movie.storedFrameCount = frames;
+            movie.frameCount = frames;
+            return movie;
         } catch (IOException e) {
-            cleanupAndThrowException(e);
-        } catch (InterruptedException e) {
-            cleanupAndThrowException(e);
+            throw new RuntimeException(e);
         }
-        cleanup();
     }
 
-    private int bitRateForSize(int width, int height) {
-        return 1000;
+    public int getChunkCount() {
+        return chunkCount;
     }
 
     /**
-     * Cleans up the temporary images.
+     * Sets the number of chunks the movie is split in, to encode them at the same time.
      * <p/>
-     * Normally you should not call this method as it is called automatically when running finish() or if an error
-     * occurred. The only reason to call it is if you have added images and then decide you don't want to generate
-     * a movie. In that case, instead of calling finish(), call cleanup().
+     * A single ffmpeg process does not use all cores of a large machine. When chunks are used, every chunk of
+     * consecutive frames is encoded by a separate ffmpeg process, all at the same time. The chunks are then joined
+     * into the movie file without encoding them again. Each chunk starts with a key frame, so a few more key frames
+     * are encoded than in a single pass. If setThreads limits the number of threads, the limit applies to all chunks
+     * together: it is divided between the processes, and at most that many chunks are encoded at the same time.
+     * <p/>
+     * Chunks are only used in TEMPORARY_FILES mode, and not for two-pass encodes or when duplicate frames were
+     * collapsed; in those cases the movie is encoded by a single process. Joining the chunks needs ffmpeg 4.1 or
+     * later.
      *
-     * @see #save()
+     * @param chunkCount the number of chunks, or 0 or 1 to encode the movie in one piece.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old to join chunks.
      */
-    public void cleanup() {
-        for (int i = 0; i < frameCount; i++) {
-            temporaryFileForFrame(i).delete();
+    public void setChunkCount(int chunkCount) {
+        if (chunkCount < 0) {
+            throw new IllegalArgumentException("The chunk count cannot be negative.");
         }
+        if (chunkCount > 1) {
+            getFfmpegVersion().require("Chunked encoding");
+        }
+        this.chunkCount = chunkCount;
     }
 
-    private void cleanupAndThrowException(Throwable t) {
-        cleanup();
-        throw new RuntimeException(t);
+    public boolean isTwoPass() {
+        return twoPass;
+    }
+
+    /**
+     * Sets if the movie is encoded in two passes.
+     * <p/>
+     * The first pass analyses the frames and writes statistics to a pass log in the temporary area of the movie. The
+     * second pass uses the statistics to hit the bit rate more accurately than a single pass. Both passes read the
+     * same temporary frames, or the same spool file, and use the settings of the selected quality; H.264 movies with
+     * the BEST quality are not encoded losslessly, because lossless encoding does not aim for a bit rate. Two-pass
+     * encoding is not available in STREAMING mode, where the frames are only available once.
+     *
+     * @param twoPass true to encode in two passes.
+     * @throws IllegalStateException if the movie is in STREAMING mode.
+     * @see #setBitRate(int)
+     * @see #setPassLogCache(java.io.File)
+     */
+    public void setTwoPass(boolean twoPass) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("Two-pass encoding cannot be changed after frames have been added.");
+        }
+        if (twoPass && exportMode == ExportMode.STREAMING) {
+            throw new IllegalStateException("Two-pass encoding is not available in streaming mode.");
+        }
+        if (twoPass) {
+            checkNoSegmentCache("Two-pass encoding");
+        }
+        this.twoPass = twoPass;
+    }
+
+    public File getPassLogCache() {
+        return passLogCache;
+    }
+
+    /**
+     * Sets the directory where first-pass statistics are kept between exports.
+     * <p/>
+     * When set, every frame is hashed. The statistics of the first pass are stored under a name made of the hash of
+     * all frames and the encoding settings. Exporting the same frames with the same settings again skips the first
+     * pass. The movie never removes files from the cache.
+     *
+     * @param passLogCache the cache directory, or null to always run the first pass.
+     */
+    public void setPassLogCache(File passLogCache) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The pass log cache cannot be changed after frames have been added.");
+        }
+        this.passLogCache = passLogCache;
+    }
+
+    public int getFrameQueueSize() {
+        return frameQueueSize;
+    }
+
+    /**
+     * Sets the number of frames that can wait to be written.
+     * <p/>
+     * With a queue size of zero (the default), addFrame writes the frame before returning. With a positive size,
+     * frames are written on a background thread and addFrame only blocks when the queue is full. The queue size can
+     * only be changed before the first frame is added.
+     *
+     * @param frameQueueSize the maximum number of queued frames.
+     */
+    public void setFrameQueueSize(int frameQueueSize) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The frame queue size cannot be changed after frames have been added.");
+        }
+        if (frameQueueSize < 0) {
+            throw new IllegalArgumentException("The frame queue size cannot be negative.");
+        }
+        this.frameQueueSize = frameQueueSize;
+    }
+
+    public ExecutorService getEncoderService() {
+        return encoderService;
+    }
+
+    /**
+     * Sets the executor service used to encode temporary images.
+     * <p/>
+     * When set, the temporary images of several frames are encoded at the same time, which is useful because PNG
+     * encoding only uses a single core. A fixed thread pool with one thread per core is a good choice. The movie does
+     * not shut down the service. In the TEMPORARY_FILES export mode the frame queue size, if set, limits the number of
+     * frames that are being encoded. In the other modes the service is only used to convert frames to YUV420P.
+     *
+     * @param encoderService the executor service, or null to encode frames on the calling thread.
+     */
+    public void setEncoderService(ExecutorService encoderService) {
+        if (frameCount > 0) {
+            throw new IllegalStateException("The encoder service cannot be changed after frames have been added.");
+        }
+        this.encoderService = encoderService;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public String getMovieFilename() {
+        return movieFilename;
+    }
+
+    public File getMovieFile() {
+        return new File(movieFilename);
+    }
+
+    public File temporaryFileForFrame(int frame) {
+        return new File(String.format(temporaryFileTemplate, frame));
+    }
+
+    /**
+     * Returns the list of temporary images that is passed to ffmpeg when duplicate frames were collapsed.
+     *
+     * @return the concat file.
+     */
+    public File getConcatFile() {
+        return new File(temporaryFilePrefix + ".ffconcat");
+    }
+
+    /**
+     * Returns the number of temporary images, which is lower than the frame count if duplicate frames were collapsed.
+     *
+     * @return the number of stored frames.
+     */
+    public int getStoredFrameCount() {
+        return storedFrameCount;
+    }
+
+    /**
+     * Returns the file that holds the raw frames in SPOOL mode.
+     *
+     * @return the spool file.
+     */
+    public File getSpoolFile() {
+        return new File(temporaryFilePrefix + ".raw");
+    }
+
+    /**
+     * Add the image to the movie.
+     * <p/>
+     * The image size needs to be exactly the same size as the movie.
+     * <p/>
+     * Internally, this saves the image to a temporary image and increases the frame counter. Temporary images are
+     * cleaned up when calling save() or if an error occurs. In streaming mode, the pixels are written directly
+     * to the ffmpeg process instead.
+     * <p/>
+     * If a frame queue size is set, the image is copied into a pooled buffer and written on a background thread, so
+     * the image can be reused as soon as this method returns.
+     * <p/>
+     * BufferedImages of TYPE_INT_ARGB, TYPE_INT_RGB, TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR are read directly from their
+     * pixel data, which is much faster than going through the color model. TYPE_INT_ARGB is the fastest: its pixels
+     * are not copied at all.
+     *
+     * @param img the image to add to the movie.
+     */
+    public void addFrame(RenderedImage img) {
+        if (img.getWidth() != width || img.getHeight() != height) {
+            throw new RuntimeException("Given image does not have the same size as the movie.");
+        }
+        writeFrame(pixelsOf(img), false);
+    }
+
+    /**
+     * Add the image to the movie, where only the given region differs from the previous frame.
+     * <p/>
+     * Only the pixels inside the dirty region are read from the image; the rest of the frame is taken from the
+     * previous frame. This is much cheaper than converting the whole image when only a small part of it changes,
+     * for example when recording a user interface. An empty region marks the frame as identical to the previous one,
+     * which lets duplicate frames be collapsed without hashing them.
+     * <p/>
+     * The caller is responsible for the region: changes outside of it are not picked up. TYPE_INT_ARGB images are
+     * not copied at all, so for those the region is only used to detect unchanged frames.
+     *
+     * @param img         the image to add to the movie.
+     * @param dirtyRegion the part of the image that changed since the previous frame, or null if unknown.
+     * @see #addFrame(java.awt.image.RenderedImage)
+     * @see #setCollapseDuplicateFrames(boolean)
+     */
+    public void addFrame(RenderedImage img, Rectangle dirtyRegion) {
+        if (img.getWidth() != width || img.getHeight() != height) {
+            throw new RuntimeException("Given image does not have the same size as the movie.");
+        }
+        if (dirtyRegion == null || frameCount == 0) {
+            writeFrame(pixelsOf(img), false);
+            return;
+        }
+        Rectangle region = dirtyRegion.intersection(new Rectangle(0, 0, width, height));
+        if (!frameBufferCurrent) {
+            // The frame buffer does not hold the previous frame, so the whole image is read.
+            writeFrame(pixelsOf(img), region.isEmpty());
+            return;
+        }
+        if (!region.isEmpty()) {
+            ImagePixels.extract(img, region, frameBuffer, frameBufferImage);
+        }
+        writeFrame(frameBuffer, region.isEmpty());
+    }
+
+    /**
+     * Add a frame to the movie, given as ARGB pixels.
+     * <p/>
+     * The pixels are stored one int per pixel, row by row, in the same format as returned by BufferedImage.getRGB.
+     * This is the cheapest way to add frames: no image conversion takes place and, in streaming mode or with a frame
+     * queue, no memory is allocated for the frame. The array can be reused as soon as this method returns.
+     *
+     * @param pixels the ARGB pixels of the frame. The array must contain exactly width * height pixels.
+     */
+    public void addFrame(int[] pixels) {
+        if (pixels.length != width * height) {
+            throw new RuntimeException("Given pixels do not have the same size as the movie.");
+        }
+        frameBufferCurrent = false;
+        writeFrame(pixels, false);
+    }
+
+    /**
+     * Add the image to the movie, shown from the given time on.
+     * <p/>
+     * The previous frame is shown until this time, so frames can be added at irregular intervals, for example when
+     * recording a screen; the movie then has a variable frame rate. Frames added without a timestamp are shown for
+     * one frame period after the previous frame. Timestamps are only supported in the TEMPORARY_FILES export mode,
+     * and not for resumable movies. The frames are passed to ffmpeg with their durations through the concat demuxer,
+     * which needs ffmpeg 4.1 or later.
+     *
+     * @param img       the image to add to the movie.
+     * @param timestamp the presentation time of the frame in seconds, at least 0 and later than that of the previous
+     *                  frame.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old for variable frame durations.
+     * @see #addFrame(java.awt.image.RenderedImage)
+     */
+    public void addFrame(RenderedImage img, double timestamp) {
+        if (img.getWidth() != width || img.getHeight() != height) {
+            throw new RuntimeException("Given image does not have the same size as the movie.");
+        }
+        checkTimestamp(timestamp);
+        int[] pixels = pixelsOf(img);
+        timestamped = true;
+        writeFrame(pixels, false, timestamp);
+    }
+
+    /**
+     * Add a frame to the movie, given as ARGB pixels, shown from the given time on.
+     *
+     * @param pixels    the ARGB pixels of the frame. The array must contain exactly width * height pixels.
+     * @param timestamp the presentation time of the frame in seconds, at least 0 and later than that of the previous
+     *                  frame.
+     * @throws UnsupportedOperationException if the ffmpeg binary is too old for variable frame durations.
+     * @see #addFrame(int[])
+     * @see #addFrame(java.awt.image.RenderedImage, double)
+     */
+    public void addFrame(int[] pixels, double timestamp) {
+        if (pixels.length != width * height) {
+            throw new RuntimeException("Given pixels do not have the same size as the movie.");
+        }
+        checkTimestamp(timestamp);
+        frameBufferCurrent = false;
+        timestamped = true;
+        writeFrame(pixels, false, timestamp);
+    }
+
+    private void checkTimestamp(double timestamp) {
+        if (exportMode != ExportMode.TEMPORARY_FILES || resumable) {
+            throw new IllegalStateException("Timestamps are only supported in TEMPORARY_FILES mode without resuming.");
+        }
+        if (!(timestamp >= 0)) {
+            throw new IllegalArgumentException("The timestamp " + timestamp + " is negative.");
+        }
+        checkNoSegmentCache("Adding frames with a timestamp");
+        getFfmpegVersion().require("Adding frames with a timestamp");
+        if (frameCount > 0 && !(timestamp > lastFrameTime)) {
+            throw new IllegalArgumentException("The timestamp " + timestamp + " is not later than the previous frame.");
+        }
+    }
+
+    private void writeFrame(int[] pixels, boolean unchanged) {
+        writeFrame(pixels, unchanged, -1);
+    }
+
+    /**
+     * Writes the frame to the sink.
+     *
+     * @param pixels    the ARGB pixels of the frame.
+     * @param unchanged true if the caller knows the frame is identical to the previous one.
+     * @param timestamp the presentation time of the frame in seconds, or -1 to show it after the previous frame.
+     */
+    private void writeFrame(int[] pixels, boolean unchanged, double timestamp) {
+        try {
+            if (frameSink == null) {
+                frameSink = openFrameSink();
+            }
+            complexityProbe.addFrame(pixels);
+            boolean collapse = collapseDuplicateFrames && exportMode == ExportMode.TEMPORARY_FILES && !resumable;
+            if (collapse || passLogCache != null || segmentCache != null) {
+                if (!unchanged || frameCount == 0) {
+                    long hash = FrameHash.hash(pixels);
+                    unchanged = frameCount > 0 && hash == previousFrameHash;
+                    previousFrameHash = hash;
+                }
+                contentHash = FrameHash.combine(contentHash, previousFrameHash);
+                if (segmentCache != null) {
+                    if (frameHashes == null) {
+                        frameHashes = new long[1024];
+                    } else if (frameCount == frameHashes.length) {
+                        long[] newHashes = new long[frameHashes.length * 2];
+                        System.arraycopy(frameHashes, 0, newHashes, 0, frameHashes.length);
+                        frameHashes = newHashes;
+                    }
+                    frameHashes[frameCount] = previousFrameHash;
+                }
+            }
+            double time = timestamp >= 0 ? timestamp : endTime;
+            lastFrameTime = time;
+            if (collapse && unchanged) {
+                // Show the previous image longer instead of storing the same image again.
+                endTime = time + 1 / getFrameRate();
+                frameCount++;
+                return;
+            }
+            frameSink.writeFrame(storedFrameCount, pixels);
+            if (storedFrameCount == frameTimes.length) {
+                double[] newTimes = new double[frameTimes.length * 2];
+                System.arraycopy(frameTimes, 0, newTimes, 0, frameTimes.length);
+                frameTimes = newTimes;
+            }
+            frameTimes[storedFrameCount] = time;
+            endTime = time + 1 / getFrameRate();
+            storedFrameCount++;
+            frameCount++;
+        } catch (IOException e) {
+            cleanupAndThrowException(e);
+        }
+    }
+
+    /**
+     * Returns the ARGB pixels of the image.
+     * <p/>
+     * For TYPE_INT_ARGB images this is the pixel array of the image itself; other images are converted into the
+     * frame buffer of the movie.
+     */
+    private int[] pixelsOf(RenderedImage img) {
+        if (frameBufferImage == null) {
+            frameBufferImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            frameBuffer = ((DataBufferInt) frameBufferImage.getRaster().getDataBuffer()).getData();
+        }
+        int[] pixels = ImagePixels.extract(img, frameBuffer, frameBufferImage);
+        frameBufferCurrent = pixels == frameBuffer;
+        return pixels;
+    }
+
+    private FrameSink openFrameSink() throws IOException {
+        FrameSink sink;
+        if (exportMode == ExportMode.STREAMING) {
+            List<String> inputArguments = rawVideoInputArguments("-"); // Read frames from standard input
+            prepareAudio(false);
+            List<String> command = buildCommand(inputArguments);
+            // Waiting processes of the pool would read the audio of this movie.
+            if (encoderPool != null && audioTracks.isEmpty() && outputChannel == null && liveFormat == null
+                    && renditions.isEmpty()) {
+                processStartTime = System.currentTimeMillis();
+                streamingProcess = encoderPool.acquire(command);
+                // Unless the pool had no idle process, the process writes to a temporary file.
+                pooledProcess = !streamingProcess.getOutputFile().equals(getMovieFile());
+                streamingProcess.attach(this, progressListener, verbose);
+            } else {
+                streamingProcess = startFfmpeg(command);
+            }
+            sink = new RawVideoSink(streamingProcess.getOutputStream(), width, height, createYuvConverter());
+        } else if (exportMode == ExportMode.SPOOL) {
+            sink = new SpoolSink(getSpoolFile(), width, height, createYuvConverter());
+        } else {
+            if (resumable && manifest == null) {
+                manifest = FrameManifest.create(getManifestFile(), getManifestSettings());
+            }
+            sink = new ImageFileSink(temporaryFileTemplate, frameEncoder, width, height, manifest);
+        }
+        if (encoderService != null && exportMode == ExportMode.TEMPORARY_FILES) {
+            // Every frame goes to its own file, so frames can be encoded in any order.
+            int maxFramesInFlight = frameQueueSize > 0 ? frameQueueSize : Runtime.getRuntime().availableProcessors() * 2;
+            framePool = new FrameBufferPool(width, height, maxFramesInFlight);
+            sink = new ParallelFrameSink(sink, encoderService, framePool);
+        } else if (frameQueueSize > 0) {
+            // One extra buffer is being filled by the caller and one is being written by the writer thread.
+            framePool = new FrameBufferPool(width, height, frameQueueSize + 2);
+            sink = new FramePipeline(sink, framePool);
+        }
+        return sink;
+    }
+
+    private Yuv420Converter createYuvConverter() {
+        if (rawPixelFormat != RawPixelFormat.YUV420P) {
+            return null;
+        }
+        return new Yuv420Converter(width, height, encoderService, Runtime.getRuntime().availableProcessors());
+    }
+
+    private List<String> rawVideoInputArguments(String input) {
+        ArrayList<String> inputArguments = new ArrayList<String>();
+        inputArguments.add("-f");
+        inputArguments.add("rawvideo");
+        inputArguments.add("-pix_fmt");
+        inputArguments.add(rawPixelFormat == RawPixelFormat.YUV420P ? "yuv420p" : "bgra");
+        inputArguments.add("-s");
+        inputArguments.add(width + "x" + height);
+        inputArguments.addAll(frameRateArguments());
+        inputArguments.add("-i");
+        inputArguments.add(input);
+        return inputArguments;
+    }
+
+    /**
+     * Returns the input option for the frame rate. The "-r" option is used because older ffmpeg builds, such as
+     * the ones in res, do not know "-framerate". Nothing is added for the default rate of ffmpeg.
+     */
+    private List<String> frameRateArguments() {
+        List<String> frameRateArguments = new ArrayList<String>();
+        if (frameRateNumerator != DEFAULT_FRAME_RATE || frameRateDenominator != 1) {
+            frameRateArguments.add("-r");
+            frameRateArguments.add(getFrameRateString());
+        }
+        return frameRateArguments;
+    }
+
+    /**
+     * Finishes the export and save the movie.
+     */
+    public void save() {
+        export();
+    }
+
+    /**
+     * Finishes the export and saves the movie on a background thread.
+     * <p/>
+     * The returned future completes with the result of the export once ffmpeg exits, or with an ExecutionException if
+     * the export failed. Cancelling the future stops ffmpeg, removes the temporary files and the partial movie. No
+     * frames can be added after calling this method.
+     *
+     * @return a future for the result of the export.
+     */
+    public Future<ExportResult> saveAsync() {
+        ExportTask task = new ExportTask(this);
+        Thread thread = new Thread(task, "simovex-export");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Finishes writing frames, runs ffmpeg until it exits and cleans up the temporary files.
+     */
+    ExportResult export() {
+        synchronized (this) {
+            if (aborted) throw new CancellationException();
+            exportStarted = true;
+        }
+        FfmpegProcess p = null;
+        try {
+            if (frameSink == null) {
+                frameSink = openFrameSink();
+            }
+            // Waits for queued frames to be written.
+            frameSink.close();
+            frameSink = null;
+            if (exportMode == ExportMode.STREAMING) {
+                p = streamingProcess;
+            } else {
+                List<String> inputArguments;
+                if (exportMode == ExportMode.SPOOL) {
+                    inputArguments = rawVideoInputArguments(getSpoolFile().getPath()); // Input frames
+                } else if (storedFrameCount < frameCount || timestamped) {
+                    writeConcatFile();
+                    inputArguments = new ArrayList<String>();
+                    inputArguments.add("-f");
+                    inputArguments.add("concat");
+                    inputArguments.add("-i");
+                    inputArguments.add(getConcatFile().getPath()); // Input images with their durations
+                    inputArguments.add("-vsync");
+                    inputArguments.add("vfr"); // Keep the timestamps instead of duplicating frames again
+                } else {
+                    inputArguments = new ArrayList<String>();
+                    inputArguments.addAll(frameRateArguments());
+                    inputArguments.add("-i");
+                    inputArguments.add(temporaryFileTemplate); // Input images
+                }
+                if (aborted) throw new CancellationException();
+                long exportStartTime = System.currentTimeMillis();
+                prepareAudio(true);
+                List<String> command;
+                if ((chunkCount > 1 || segmentCache != null) && !twoPass && exportMode == ExportMode.TEMPORARY_FILES
+                        && storedFrameCount == frameCount && !timestamped && renditions.isEmpty()) {
+                    int exitCode = encodeChunks();
+                    if (exitCode != 0) {
+                        return new ExportResult(getMovieFile(), exitCode, frameCount, System.currentTimeMillis() - exportStartTime,
+                                failedOutput);
+                    }
+                    if (aborted) throw new CancellationException();
+                    command = buildJoinCommand();
+                } else {
+                    if (twoPass) {
+                        int exitCode = runFirstPass(inputArguments);
+                        if (exitCode != 0) {
+                            return new ExportResult(getMovieFile(), exitCode, frameCount,
+                                    System.currentTimeMillis() - exportStartTime, failedOutput);
+                        }
+                        if (aborted) throw new CancellationException();
+                    }
+                    command = buildCommand(inputArguments, twoPass ? 2 : 0, null);
+                }
+                p = startFfmpeg(command);
+                processStartTime = exportStartTime;
+                writeStandardInput(p);
+            }
+            runningProcess = p;
+            if (aborted) p.destroy();
+            int exitCode = p.waitFor();
+            streamingProcess = null;
+            if (p.getMovieOutputException() != null) {
+                throw p.getMovieOutputException();
+            }
+            if (exitCode == 0 && pooledProcess) {
+                // A process from the encoder pool wrote to a temporary file.
+                moveFile(p.getOutputFile(), getMovieFile());
+            }
+            long duration = System.currentTimeMillis() - processStartTime;
+            return new ExportResult(getMovieFile(), exitCode, frameCount, duration, p.getOutput());
+        } catch (IOException e) {
+            throw ffmpegException(e, p != null ? p : streamingProcess);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            runningProcess = null;
+            if (pooledProcess && p != null) {
+                // The temporary output of a failed export; after a successful one it was already moved.
+                p.getOutputFile().delete();
+            }
+            cleanup();
+            if (aborted) {
+                if (outputChannel == null) {
+                    getMovieFile().delete();
+                }
+                for (Rendition rendition : renditions) {
+                    rendition.getFile().delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes the temporary images in chunks of consecutive frames, several at the same time.
+     * <p/>
+     * Every chunk is a separate ffmpeg process that writes its own file, so every chunk starts with a key frame and
+     * the chunks can be joined without encoding them again. With a segment cache, chunks have a fixed length, so
+     * unchanged parts of the movie give the same chunks as before, and are copied from the cache.
+     *
+     * @return the exit code of the first ffmpeg process that failed, or 0 if all chunks were encoded.
+     */
+    private int encodeChunks() throws IOException, InterruptedException {
+        int chunks;
+        int maxRunning;
+        if (segmentCache != null) {
+            chunks = (frameCount + SEGMENT_LENGTH - 1) / SEGMENT_LENGTH;
+            maxRunning = Math.max(1, chunkCount);
+        } else {
+            chunks = Math.min(chunkCount, frameCount);
+            maxRunning = chunks;
+        }
+        if (threads > 0) {
+            // The processes share the threads of the export, at least one each.
+            maxRunning = Math.max(1, Math.min(maxRunning, threads));
+            threadsPerChunk = threads / maxRunning;
+        }
+        chunksWritten = chunks;
+        List<FfmpegProcess> processes = new ArrayList<FfmpegProcess>(chunks);
+        // The cache name of the chunk each process encodes, or null if the chunk is not cached.
+        List<String> segmentNames = new ArrayList<String>(chunks);
+        int result = 0;
+        int finished = 0;
+        try {
+            for (int i = 0; i < chunks; i++) {
+                int start, end;
+                String segmentName = null;
+                if (segmentCache != null) {
+                    start = i * SEGMENT_LENGTH;
+                    end = Math.min(frameCount, start + SEGMENT_LENGTH);
+                    segmentName = getSegmentName(start, end);
+                    if (segmentCache.get(segmentName, getChunkFile(i))) continue;
+                } else {
+                    start = (int) ((long) frameCount * i / chunks);
+                    end = (int) ((long) frameCount * (i + 1) / chunks);
+                }
+                if (processes.size() - finished == maxRunning) {
+                    result = finishChunk(processes.get(finished), segmentNames.get(finished));
+                    finished++;
+                    if (result != 0) break;
+                }
+                List<String> inputArguments = new ArrayList<String>();
+                inputArguments.addAll(frameRateArguments());
+                inputArguments.add("-start_number");
+                inputArguments.add(String.valueOf(start));
+                inputArguments.add("-i");
+                inputArguments.add(temporaryFileTemplate); // Input images
+                inputArguments.add("-vframes");
+                inputArguments.add(String.valueOf(end - start));
+                // The audio is added when the chunks are joined.
+                List<String> command = buildCommand(inputArguments, 0, getChunkFile(i));
+                FfmpegProcess p = startFfmpeg(command);
+                p.getOutputStream().close();
+                processes.add(p);
+                segmentNames.add(segmentName);
+                synchronized (this) {
+                    runningChunks.add(p);
+                    if (aborted) p.destroy();
+                }
+            }
+            for (; finished < processes.size() && result == 0; finished++) {
+                result = finishChunk(processes.get(finished), segmentNames.get(finished));
+            }
+            return result;
+        } finally {
+            threadsPerChunk = 0;
+            synchronized (this) {
+                runningChunks.clear();
+            }
+            // After a failure, the movie cannot be completed, so the other chunks are not needed.
+            for (FfmpegProcess p : processes) {
+                p.destroy();
+            }
+        }
+    }
+
+    /**
+     * Waits for a chunk to be encoded and adds it to the segment cache.
+     *
+     * @return the exit code of ffmpeg.
+     */
+    private int finishChunk(FfmpegProcess p, String segmentName) throws IOException, InterruptedException {
+        int exitCode = p.waitFor();
+        if (exitCode == 0 && segmentName != null && !aborted) {
+            segmentCache.put(segmentName, p.getOutputFile());
+        } else if (exitCode != 0) {
+            failedOutput = p.getOutput();
+        }
+        return exitCode;
+    }
+
+    /**
+     * Returns the name of a chunk in the segment cache: the hash of its frames and the settings that change the result.
+     */
+    private String getSegmentName(int start, int end) {
+        long hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = FrameHash.combine(hash, frameHashes[i]);
+        }
+        String extension = getChunkFile(0).getName();
+        extension = extension.substring(extension.lastIndexOf('.') + 1);
+        return Long.toHexString(hash) + "-" + (end - start) + "-" + width + "x" + height + "-"
+                + getFrameRateString().replace('/', '_') + "-" + codecTypeMap.get(codecType) + "-" + compressionQualityMap.get(compressionQuality) + "-"
+                + getEncoderBitRate(0) + "k." + extension;
+    }
+
+    /**
+     * Builds the command line that joins the encoded chunks into the movie file.
+     */
+    private List<String> buildJoinCommand() throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(getChunkListFile())));
+        try {
+            out.print("ffconcat version 1.0\n");
+            for (int i = 0; i < chunksWritten; i++) {
+                out.print("file '" + getChunkFile(i).getName() + "'\n");
+            }
+        } finally {
+            out.close();
+        }
+        ArrayList<String> commandList = new ArrayList<String>();
+        commandList.add(FFMPEG_BINARY.getAbsolutePath());
+        commandList.add("-y"); // Overwrite target if exists
+        commandList.addAll(audioInputArguments());
+        commandList.add("-f");
+        commandList.add("concat");
+        commandList.add("-i");
+        commandList.add(getChunkListFile().getPath()); // Input chunks
+        if (!audioTracks.isEmpty()) {
+            commandList.addAll(mapArguments(audioTracks.size() + ":v"));
+        }
+        commandList.add("-c:v");
+        commandList.add("copy"); // Copy the encoded frames as they are
+        commandList.addAll(outputArguments());
+        return commandList;
+    }
+
+    /**
+     * Returns the ffmpeg arguments for the movie output: the movie file, or the standard output in a streamable
+     * format.
+     */
+    private List<String> outputArguments() {
+        List<String> outputArguments = new ArrayList<String>();
+        if (liveFormat != null) {
+            outputArguments.addAll(liveOutputArguments());
+            outputArguments.add(movieFilename); // Target playlist or file name
+        } else if (outputChannel == null) {
+            outputArguments.add(movieFilename); // Target file name
+        } else if (streamFormat == StreamFormat.MPEG_TS) {
+            outputArguments.add("-f");
+            outputArguments.add("mpegts");
+            outputArguments.add(PIPE_OUTPUT);
+        } else {
+            outputArguments.add("-f");
+            outputArguments.add("mp4");
+            outputArguments.add("-movflags");
+            outputArguments.add("frag_keyframe+empty_moov"); // Write the header first, then fragments
+            outputArguments.add(PIPE_OUTPUT);
+        }
+        return outputArguments;
+    }
+
+    private List<String> liveOutputArguments() {
+        int dot = movieFilename.lastIndexOf('.');
+        String segmentPrefix = new File(dot >= 0 ? movieFilename.substring(0, dot) : movieFilename).getName();
+        String segmentDuration = String.valueOf(liveSegmentDuration);
+        List<String> outputArguments = new ArrayList<String>();
+        if (liveFormat == LiveFormat.FRAGMENTED_MP4) {
+            outputArguments.add("-f");
+            outputArguments.add("mp4");
+            outputArguments.add("-movflags");
+            outputArguments.add("frag_keyframe+empty_moov+default_base_moof"); // A fragment at every key frame
+        } else if (liveFormat == LiveFormat.DASH) {
+            outputArguments.add("-f");
+            outputArguments.add("dash");
+            outputArguments.add("-seg_duration");
+            outputArguments.add(segmentDuration);
+            outputArguments.add("-init_seg_name");
+            outputArguments.add(segmentPrefix + "-init-$RepresentationID$.$ext$");
+            outputArguments.add("-media_seg_name");
+            outputArguments.add(segmentPrefix + "-$RepresentationID$-$Number%05d$.$ext$");
+        } else {
+            File directory = new File(movieFilename).getAbsoluteFile().getParentFile();
+            outputArguments.add("-f");
+            outputArguments.add("hls");
+            outputArguments.add("-hls_time");
+            outputArguments.add(segmentDuration);
+            outputArguments.add("-hls_list_size");
+            outputArguments.add("0"); // Keep all segments in the playlist
+            outputArguments.add("-hls_playlist_type");
+            outputArguments.add("event"); // Segments are only added
+            if (liveFormat == LiveFormat.HLS_FMP4) {
+                outputArguments.add("-hls_segment_type");
+                outputArguments.add("fmp4");
+                outputArguments.add("-hls_fmp4_init_filename");
+                outputArguments.add(segmentPrefix + "-init.mp4");
+            }
+            outputArguments.add("-hls_segment_filename");
+            String extension = liveFormat == LiveFormat.HLS_FMP4 ? "m4s" : "ts";
+            outputArguments.add(new File(directory, segmentPrefix + "-%05d." + extension).getPath());
+        }
+        return outputArguments;
+    }
+
+    private File getChunkFile(int chunk) {
+        // The chunks use the container of the movie file, so they can be joined into it.
+        int dot = movieFilename.lastIndexOf('.');
+        String extension = dot >= 0 ? movieFilename.substring(dot + 1) : "mov";
+        if (outputChannel != null) {
+            extension = streamFormat == StreamFormat.MPEG_TS ? "ts" : "mp4";
+        } else if (liveFormat != null) {
+            extension = liveFormat == LiveFormat.HLS ? "ts" : "mp4";
+        }
+        return new File(String.format("%s-chunk%03d.%s", temporaryFilePrefix, chunk, extension));
+    }
+
+    private File getChunkListFile() {
+        return new File(temporaryFilePrefix + "-chunks.ffconcat");
+    }
+
+    /**
+     * Writes the list of temporary images and how long each one is shown, for the ffmpeg concat demuxer.
+     * <p/>
+     * The last image is listed twice: the concat demuxer ignores the duration of the last entry.
+     */
+    private void writeConcatFile() throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(getConcatFile())));
+        try {
+            out.print("ffconcat version 1.0\n");
+            for (int i = 0; i < storedFrameCount; i++) {
+                double end = i + 1 < storedFrameCount ? frameTimes[i + 1] : endTime;
+                out.print("file '" + temporaryFileForFrame(i).getName() + "'\n");
+                out.print(String.format(Locale.US, "duration %.6f\n", end - frameTimes[i]));
+            }
+            if (storedFrameCount > 0) {
+                out.print("file '" + temporaryFileForFrame(storedFrameCount - 1).getName() + "'\n");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Stops a running export. Called when the future returned by saveAsync() is cancelled.
+     */
+    void abortExport() {
+        synchronized (this) {
+            aborted = true;
+            if (!exportStarted) {
+                // The export will never run, so nobody else cleans up.
+                cleanup();
+                return;
+            }
+        }
+        FfmpegProcess p = runningProcess;
+        if (p != null) {
+            p.destroy();
+        }
+        synchronized (this) {
+            for (FfmpegProcess chunk : runningChunks) {
+                chunk.destroy();
+            }
+        }
+    }
+
+    private static void moveFile(File source, File target) throws IOException {
+        if (source.renameTo(target)) return;
+        // Renaming fails if the target exists on some platforms, or if the files are on different file systems.
+        target.delete();
+        if (source.renameTo(target)) return;
+        copyFile(source, target);
+        source.delete();
+    }
+
+    static void copyFile(File source, File target) throws IOException {
+        FileChannel in = new FileInputStream(source).getChannel();
+        try {
+            FileChannel out = new FileOutputStream(target).getChannel();
+            try {
+                long position = 0;
+                long size = in.size();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private FfmpegProcess startFfmpeg(List<String> command) throws IOException {
+        processStartTime = System.currentTimeMillis();
+        // Only the process that writes the movie writes to the channel; chunks are written to files.
+        WritableByteChannel movieOutput = command.contains(PIPE_OUTPUT) ? outputChannel : null;
+        return new FfmpegProcess(command, verbose, this, progressListener, movieOutput);
+    }
+
+    /**
+     * Runs the first pass of a two-pass encode, unless its statistics are in the pass log cache.
+     *
+     * @param inputArguments the ffmpeg arguments for the frames.
+     * @return the exit code of ffmpeg, or 0 if the statistics were cached.
+     */
+    private int runFirstPass(List<String> inputArguments) throws IOException, InterruptedException {
+        File cachedPassLog = new File(getPassLogPrefix() + PASS_LOG_SUFFIXES[PASS_LOG_SUFFIXES.length - 1]);
+        if (passLogCache != null && cachedPassLog.exists()) {
+            return 0;
+        }
+        FfmpegProcess p = startFfmpeg(buildCommand(inputArguments, 1, null));
+        p.getOutputStream().close();
+        runningProcess = p;
+        if (aborted) p.destroy();
+        int exitCode = p.waitFor();
+        runningProcess = null;
+        if (exitCode != 0) {
+            failedOutput = p.getOutput();
+        }
+        if (exitCode == 0 && passLogCache != null) {
+            passLogCache.mkdirs();
+            // The main log is moved last, so the cache only contains complete statistics.
+            for (String suffix : PASS_LOG_SUFFIXES) {
+                File passLog = new File(getTemporaryPassLogPrefix() + suffix);
+                if (passLog.exists()) {
+                    addToPassLogCache(passLog, new File(getPassLogPrefix() + suffix));
+                }
+            }
+        }
+        return exitCode;
+    }
+
+    /**
+     * Moves a pass log into the cache. The log is first moved next to its final name and then renamed, so an
+     * interrupted copy from another file system never leaves an incomplete log under the name that is looked up.
+     *
+     * @param passLog the pass log in the temporary area.
+     * @param target  the name of the pass log in the cache.
+     * @throws IOException if the log could not be moved.
+     */
+    private static void addToPassLogCache(File passLog, File target) throws IOException {
+        File temporaryFile = new File(target.getPath() + ".part");
+        moveFile(passLog, temporaryFile);
+        target.delete();
+        if (!temporaryFile.renameTo(target)) {
+            temporaryFile.delete();
+            throw new IOException("Could not add " + target + " to the pass log cache.");
+        }
+    }
+
+    /**
+     * Returns the path of the first-pass statistics without the suffix ffmpeg adds.
+     */
+    private String getPassLogPrefix() {
+        if (passLogCache == null) {
+            return getTemporaryPassLogPrefix();
+        }
+        String key = Long.toHexString(contentHash) + "-" + frameCount + "-" + width + "x" + height + "-"
+                + getFrameRateString().replace('/', '_') + "-" + codecTypeMap.get(codecType) + "-" + getPreset(true) + "-" + getEncoderBitRate(1) + "k";
+        return new File(passLogCache, key).getPath();
+    }
+
+    private String getTemporaryPassLogPrefix() {
+        return temporaryFilePrefix + "-pass";
+    }
+
+    /**
+     * Returns the command that encodes the movie in a single pass. Package-private for tests.
+     */
+    List<String> buildCommand(List<String> inputArguments) {
+        return buildCommand(inputArguments, 0, null);
+    }
+
+    /**
+     * Decides how the PCM samples of the audio tracks are passed to ffmpeg and writes the ones that go through a file.
+     *
+     * @param standardInputAvailable true if the standard input of ffmpeg does not carry frames.
+     */
+    private void prepareAudio(boolean standardInputAvailable) throws IOException {
+        for (int i = 0; i < audioTracks.size(); i++) {
+            AudioTrack track = audioTracks.get(i);
+            if (!track.isPcm()) continue;
+            if (standardInputAvailable && standardInputTrack < 0) {
+                standardInputTrack = i;
+                continue;
+            }
+            InputStream in = track.getPcm();
+            try {
+                OutputStream out = new FileOutputStream(getAudioFile(i));
+                try {
+                    copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the PCM track that goes through the standard input of ffmpeg on a background thread, or closes the
+     * standard input if there is no such track.
+     */
+    private void writeStandardInput(FfmpegProcess p) throws IOException {
+        final OutputStream out = p.getOutputStream();
+        if (standardInputTrack < 0) {
+            out.close();
+            return;
+        }
+        final InputStream in = audioTracks.get(standardInputTrack).getPcm();
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    copy(in, out);
+                } catch (IOException e) {
+                    // ffmpeg stopped reading; its exit code reports why.
+                } finally {
+                    try {
+                        in.close();
+                        out.close();
+                    } catch (IOException e) {
+                        // Nothing left to write.
+                    }
+                }
+            }
+        }, "ffmpeg-audio-input");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Returns the ffmpeg inputs for the audio tracks. They come before the frames, so the video is input number
+     * audioTracks.size().
+     */
+    private List<String> audioInputArguments() {
+        List<String> inputArguments = new ArrayList<String>();
+        for (int i = 0; i < audioTracks.size(); i++) {
+            AudioTrack track = audioTracks.get(i);
+            if (track.isPcm()) {
+                inputArguments.add("-f");
+                inputArguments.add("s16le");
+                inputArguments.add("-ar");
+                inputArguments.add(String.valueOf(track.getSampleRate()));
+                inputArguments.add("-ac");
+                inputArguments.add(String.valueOf(track.getChannels()));
+                inputArguments.add("-i");
+                inputArguments.add(i == standardInputTrack ? "-" : getAudioFile(i).getPath());
+            } else {
+                inputArguments.add("-i");
+                inputArguments.add(track.getFile().getPath());
+            }
+        }
+        return inputArguments;
+    }
+
+    /**
+     * Returns the ffmpeg arguments that put a video stream and all audio tracks in an output.
+     *
+     * @param video the input stream or filter output with the video.
+     */
+    private List<String> mapArguments(String video) {
+        List<String> mapArguments = new ArrayList<String>();
+        mapArguments.add("-map");
+        mapArguments.add(video);
+        for (int i = 0; i < audioTracks.size(); i++) {
+            mapArguments.add("-map");
+            mapArguments.add(i + ":a");
+        }
+        return mapArguments;
+    }
+
+    private File getAudioFile(int track) {
+        return new File(temporaryFilePrefix + "-audio" + track + ".pcm");
+    }
+
+    /**
+     * Builds the ffmpeg command line.
+     *
+     * @param inputArguments the ffmpeg arguments for the frames.
+     * @param pass           the pass of a two-pass encode, or 0 for a single pass.
+     * @param chunkFile      the file for a chunk of the movie, or null to build the command for the movie itself.
+     * @return the command line.
+     */
+    private List<String> buildCommand(List<String> inputArguments, int pass, File chunkFile) {
+        // The first pass has no output, and the audio is added when the chunks are joined.
+        boolean audio = pass != 1 && chunkFile == null;
+        // Renditions are only written with the movie itself.
+        boolean withRenditions = !renditions.isEmpty() && pass != 1 && chunkFile == null;
+
+        ArrayList<String> commandList = new ArrayList<String>();
+        commandList.add(FFMPEG_BINARY.getAbsolutePath());
+        commandList.add("-y"); // Overwrite target if exists
+        if (audio) {
+            commandList.addAll(audioInputArguments());
+        }
+        commandList.addAll(inputArguments);
+        if (withRenditions) {
+            commandList.add("-filter_complex");
+            commandList.add(renditionFilter());
+            commandList.addAll(mapArguments("[v0]"));
+        } else if (audio && !audioTracks.isEmpty()) {
+            commandList.addAll(mapArguments(audioTracks.size() + ":v"));
+        }
+        commandList.addAll(encodeArguments(getEncoderBitRate(pass), pass));
+        if (pass == 1) {
+            // Only the statistics are needed.
+            commandList.add("-an");
+            commandList.add("-f");
+            commandList.add("null");
+            commandList.add("-");
+        } else if (chunkFile != null) {
+            commandList.add(chunkFile.getPath());
+        } else {
+            commandList.addAll(outputArguments());
+        }
+        if (withRenditions) {
+            // Options that follow the movie file apply to the next output.
+            for (int i = 0; i < renditions.size(); i++) {
+                Rendition rendition = renditions.get(i);
+                commandList.addAll(mapArguments("[v" + (i + 1) + "]"));
+                commandList.addAll(encodeArguments(getBitRate(rendition), 0));
+                commandList.add(rendition.getFile().getPath());
+            }
+        }
+        return commandList;
+    }
+
+    /**
+     * Returns the ffmpeg arguments that select the codec and bit rate of an output.
+     *
+     * @param bitRate the bit rate in kbit/s, or 0 to leave the bit rate to the codec or preset.
+     * @param pass    the pass of a two-pass encode, or 0 for a single pass.
+     * @return the arguments.
+     */
+    private List<String> encodeArguments(int bitRate, int pass) {
+        List<String> encodeArguments = new ArrayList<String>();
+        encodeArguments.add("-vcodec");
+        encodeArguments.add(codecTypeMap.get(codecType)); // Target video codec
+        int encoderThreads = threadsPerChunk > 0 ? threadsPerChunk : threads;
+        if (encoderThreads > 0) {
+            encodeArguments.add("-threads");
+            encodeArguments.add(String.valueOf(encoderThreads));
+        }
+        if (codecType == CodecType.H264) {
+            encodeArguments.addAll(x264Arguments(bitRate, pass));
+        }
+        if (bitRate > 0) {
+            encodeArguments.add(getFfmpegVersion().usesPresetFiles() ? "-b" : "-b:v");
+            encodeArguments.add(bitRate + "k"); // Target bit rate
+        }
+        if (pass > 0) {
+            encodeArguments.add("-pass");
+            encodeArguments.add(String.valueOf(pass));
+            encodeArguments.add("-passlogfile");
+            encodeArguments.add(pass == 1 ? getTemporaryPassLogPrefix() : getPassLogPrefix());
+        }
+        if (liveFormat != null) {
+            // Start a new segment every segment duration.
+            encodeArguments.add("-force_key_frames");
+            encodeArguments.add("expr:gte(t,n_forced*" + liveSegmentDuration + ")");
+        }
+        return encodeArguments;
+    }
+
+    /**
+     * Returns the x264 settings for the compression quality.
+     * <p/>
+     * Old ffmpeg builds, such as the ones in platform, read them from the preset files in res. Newer builds reject
+     * those files, and get the matching libx264 preset instead, with a constant rate factor, or lossless encoding for
+     * the BEST quality, when no bit rate is given.
+     *
+     * @param bitRate the bit rate in kbit/s, or 0 to leave the bit rate to the preset.
+     * @param pass    the pass of a two-pass encode, or 0 for a single pass.
+     */
+    private List<String> x264Arguments(int bitRate, int pass) {
+        List<String> x264Arguments = new ArrayList<String>();
+        if (getFfmpegVersion().usesPresetFiles()) {
+            x264Arguments.add("-fpre");
+            x264Arguments.add(String.format(FFMPEG_PRESET_TEMPLATE, getPreset(pass > 0 || bitRate > 0)));
+            return x264Arguments;
+        }
+        x264Arguments.add("-preset");
+        x264Arguments.add(x264PresetMap.get(compressionQuality));
+        if (compressionQuality == CompressionQuality.LOW) {
+            // Like the baseline preset file, for players that only decode the baseline profile.
+            x264Arguments.add("-profile:v");
+            x264Arguments.add("baseline");
+        }
+        if (bitRate == 0 && compressionQuality == CompressionQuality.BEST) {
+            x264Arguments.add("-qp");
+            x264Arguments.add("0");
+        } else if (bitRate == 0) {
+            x264Arguments.add("-crf");
+            x264Arguments.add(String.valueOf(x264RateFactorMap.get(compressionQuality)));
+        }
+        // Without this, libx264 keeps the full chroma resolution of BGRA frames, which most players cannot decode.
+        x264Arguments.add("-pix_fmt");
+        x264Arguments.add("yuv420p");
+        return x264Arguments;
+    }
+
+    /**
+     * Returns the name of the x264 preset file for the compression quality.
+     * <p/>
+     * Both passes of a two-pass encode must use the same preset, or x264 rejects the statistics of the first pass;
+     * x264 already makes the first pass faster by itself. The lossless preset uses a constant quantizer, which
+     * ignores the bit rate, so encodes with a bit rate use the high quality preset instead.
+     *
+     * @param rateControlled true if the encode aims for a bit rate.
+     */
+    private String getPreset(boolean rateControlled) {
+        if (rateControlled && compressionQuality == CompressionQuality.BEST) {
+            return compressionQualityMap.get(CompressionQuality.HIGH);
+        }
+        return compressionQualityMap.get(compressionQuality);
+    }
+
+    /**
+     * Returns the filter graph that splits the frames into the movie and its renditions. The movie is the output
+     * labeled v0, the renditions are scaled into v1, v2 and so on.
+     */
+    private String renditionFilter() {
+        int videoInput = audioTracks.size();
+        StringBuilder filter = new StringBuilder();
+        filter.append('[').append(videoInput).append(":v]split=").append(renditions.size() + 1);
+        filter.append("[v0]");
+        for (int i = 1; i <= renditions.size(); i++) {
+            filter.append("[s").append(i).append(']');
+        }
+        for (int i = 1; i <= renditions.size(); i++) {
+            Rendition rendition = renditions.get(i - 1);
+            filter.append(";[s").append(i).append("]scale=").append(rendition.getWidth()).append(':')
+                    .append(rendition.getHeight()).append("[v").append(i).append(']');
+        }
+        return filter.toString();
+    }
+
+    /**
+     * Returns the bit rate that is passed to ffmpeg for the movie. A bit rate that was set is always used; an
+     * estimated bit rate is left out for single-pass H.264 encodes, which use the quality preset.
+     *
+     * @param pass the pass of a two-pass encode, or 0 for a single pass.
+     * @return the bit rate in kbit/s, or 0 to leave the bit rate to the codec or preset.
+     */
+    private int getEncoderBitRate(int pass) {
+        if (bitRate > 0) return bitRate;
+        if (codecType == CodecType.H264 && pass == 0) return 0;
+        return getBitRate();
+    }
+
+    /**
+     * Returns the bit rate of a rendition: the bit rate that was set, or else an estimate from its size. Like the
+     * movie, an H.264 rendition without a bit rate uses the quality preset.
+     */
+    private int getBitRate(Rendition rendition) {
+        if (rendition.getBitRate() > 0) return rendition.getBitRate();
+        if (codecType == CodecType.H264) return 0;
+        return BitRateModel.bitRate(codecType, compressionQuality, rendition.getWidth(), rendition.getHeight(),
+                getFrameRate(), complexityProbe.getComplexity());
+    }
+
+    /**
+     * Cleans up the temporary images.
+     * <p/>
+     * Normally you should not call this method as it is called automatically when running finish() or if an error
+     * occurred. The only reason to call it is if you have added images and then decide you don't want to generate
+     * a movie. In that case, instead of calling finish(), call cleanup().
+     * <p/>
+     * In streaming mode, an ffmpeg process that is still running is stopped and the partially written movie
+     * is removed. In spool mode, the spool file is removed.
+     *
+     * @see #save()
+     */
+    public void cleanup() {
+        // Stop ffmpeg first: a frame writer that is blocked on a full pipe only returns when ffmpeg is gone.
+        if (streamingProcess != null) {
+            streamingProcess.destroy();
+        }
+        if (frameSink != null) {
+            frameSink.abort();
+            frameSink = null;
+        }
+        if (streamingProcess != null) {
+            // The outputs are incomplete.
+            if (pooledProcess) {
+                streamingProcess.getOutputFile().delete();
+            } else if (outputChannel == null) {
+                getMovieFile().delete();
+            }
+            for (Rendition rendition : renditions) {
+                rendition.getFile().delete();
+            }
+            streamingProcess = null;
+        }
+        if (exportMode == ExportMode.TEMPORARY_FILES) {
+            for (int i = 0; i < storedFrameCount; i++) {
+                temporaryFileForFrame(i).delete();
+            }
+            getConcatFile().delete();
+            for (int i = 0; i < chunksWritten; i++) {
+                getChunkFile(i).delete();
+            }
+            getChunkListFile().delete();
+            if (manifest != null) {
+                try {
+                    manifest.close();
+                } catch (IOException e) {
+                    // The manifest is deleted anyway.
+                }
+                manifest.getFile().delete();
+                manifest = null;
+            }
+        } else if (exportMode == ExportMode.SPOOL) {
+            getSpoolFile().delete();
+        }
+        for (String suffix : PASS_LOG_SUFFIXES) {
+            new File(getTemporaryPassLogPrefix() + suffix).delete();
+        }
+        for (int i = 0; i < audioTracks.size(); i++) {
+            getAudioFile(i).delete();
+        }
+    }
+
+    private void cleanupAndThrowException(Throwable t) {
+        FfmpegProcess p = streamingProcess;
+        cleanup();
+        throw ffmpegException(t, p);
+    }
+
+    /**
+     * Wraps an error in an exception that also contains the last output of ffmpeg. When ffmpeg stops, writing to it
+     * fails with a broken pipe; the reason is in its output.
+     *
+     * @param t the error.
+     * @param p the ffmpeg process, or null if it was not started.
+     * @return the exception to throw.
+     */
+    private RuntimeException ffmpegException(Throwable t, FfmpegProcess p) {
+        if (p == null) return new RuntimeException(t);
+        p.destroy();
+        try {
+            // Reads the rest of the output.
+            p.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return new RuntimeException(t + "\nffmpeg output:\n" + p.getOutput(), t);
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes frames as uncompressed PAM (portable arbitrary map) images with RGBA tuples.
+ */
+class PamFrameEncoder implements FrameEncoder {
+
+    public String getExtension() {
+        return "pam";
+    }
+
+    public void encode(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        String header = "P7\nWIDTH " + width + "\nHEIGHT " + height + "\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+        out.write(header.getBytes("US-ASCII"));
+        byte[] row = new byte[width * 4];
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = pixels[p++];
+                row[i++] = (byte) (argb >> 16);
+                row[i++] = (byte) (argb >> 8);
+                row[i++] = (byte) argb;
+                row[i++] = (byte) (argb >>> 24);
+            }
+            out.write(row);
+        }
+        out.flush();
+    }
+
+    public void dispose() {
+    }
+
+}
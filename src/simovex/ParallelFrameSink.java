@@ -0,0 +1,141 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Writes frames to another sink using the threads of an executor service.
+ * <p/>
+ * Several frames are written at the same time, so they can finish out of order. This is only safe for sinks that
+ * store every frame separately, such as the image file sink. The number of frames in flight is limited by the size of
+ * the buffer pool: writeFrame blocks until a buffer is released.
+ */
+class ParallelFrameSink implements FrameSink {
+
+    private final FrameSink target;
+    private final ExecutorService executor;
+    private final FrameBufferPool pool;
+    private final Object lock = new Object();
+    private int pending = 0;
+    private volatile boolean aborted = false;
+    private volatile Throwable failure;
+
+    public ParallelFrameSink(FrameSink target, ExecutorService executor, FrameBufferPool pool) {
+        this.target = target;
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    public void writeFrame(int frame, int[] pixels) throws IOException {
+        checkFailure();
+        final FrameBufferPool.FrameBuffer buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        System.arraycopy(pixels, 0, buffer.pixels, 0, pixels.length);
+        buffer.frame = frame;
+        synchronized (lock) {
+            pending++;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    writeBuffer(buffer);
+                }
+            });
+        } catch (RuntimeException e) {
+            frameDone(buffer);
+            throw e;
+        }
+    }
+
+    private void writeBuffer(FrameBufferPool.FrameBuffer buffer) {
+        try {
+            if (failure == null && !aborted) {
+                target.writeFrame(buffer.frame, buffer.pixels);
+            }
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            frameDone(buffer);
+        }
+    }
+
+    private void frameDone(FrameBufferPool.FrameBuffer buffer) {
+        pool.release(buffer);
+        synchronized (lock) {
+            pending--;
+            lock.notifyAll();
+        }
+    }
+
+    private void awaitPendingFrames() throws InterruptedException {
+        synchronized (lock) {
+            while (pending > 0) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Waits until all frames are written, then closes the target sink.
+     *
+     * @throws IOException if one of the frames could not be written.
+     */
+    public void close() throws IOException {
+        try {
+            awaitPendingFrames();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        checkFailure();
+        target.close();
+    }
+
+    /**
+     * Skips frames that have not started yet and waits for the ones that are being written, so no files are created
+     * after this method returns.
+     */
+    public void abort() {
+        aborted = true;
+        try {
+            awaitPendingFrames();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.abort();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure == null) return;
+        if (failure instanceof IOException) throw (IOException) failure;
+        IOException e = new IOException("Error while writing frame: " + failure);
+        e.initCause(failure);
+        throw e;
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        InterruptedIOException ioe = new InterruptedIOException("Interrupted while waiting for frames to be written.");
+        ioe.initCause(e);
+        return ioe;
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import javax.imageio.ImageIO;
+import java.awt.image.*;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes frames as PNG images using ImageIO, with the default compression.
+ */
+class PngFrameEncoder implements FrameEncoder {
+
+    private static final int[] ARGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000};
+
+    public String getExtension() {
+        return "png";
+    }
+
+    public void encode(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        ImageIO.write(wrap(pixels, width, height), "png", out);
+    }
+
+    public void dispose() {
+    }
+
+    /**
+     * Returns an ARGB image that uses the given pixel array, without copying it.
+     */
+    private static BufferedImage wrap(int[] pixels, int width, int height) {
+        DataBufferInt dataBuffer = new DataBufferInt(pixels, pixels.length);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, ARGB_MASKS, null);
+        return new BufferedImage(ColorModel.getRGBdefault(), raster, false, null);
+    }
+
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+/**
+ * Receives progress reports while ffmpeg encodes a movie.
+ * <p/>
+ * The listener is called on the thread that reads the ffmpeg output, so it should return quickly.
+ */
+public interface ProgressListener {
+
+    /**
+     * Called every time ffmpeg reports its progress.
+     *
+     * @param movie    the movie being encoded.
+     * @param progress the progress so far.
+     */
+    void progressChanged(Movie movie, EncodingProgress progress);
+
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes every frame as raw BGRA pixels to a stream, typically the standard input of ffmpeg.
+ * <p/>
+ * If a converter is given, frames are written as yuv420p instead.
+ */
+class RawVideoSink implements FrameSink {
+
+    private final OutputStream out;
+    private final int width, height;
+    private final byte[] rawRowBuffer;
+    private final Yuv420Converter converter;
+    private final byte[] yuvBuffer;
+
+    public RawVideoSink(OutputStream out, int width, int height) {
+        this(out, width, height, null);
+    }
+
+    /**
+     * Creates a sink that writes raw frames.
+     *
+     * @param out       the stream to write to.
+     * @param width     the width of the frames.
+     * @param height    the height of the frames.
+     * @param converter the converter to yuv420p, or null to write BGRA frames.
+     */
+    public RawVideoSink(OutputStream out, int width, int height, Yuv420Converter converter) {
+        this.out = new BufferedOutputStream(out, width * 4 * 64);
+        this.width = width;
+        this.height = height;
+        this.converter = converter;
+        rawRowBuffer = new byte[width * 4];
+        yuvBuffer = converter == null ? null : new byte[converter.getFrameSize()];
+    }
+
+    /**
+     * Writes the pixels as a raw BGRA frame.
+     * <p/>
+     * ARGB integers stored in little-endian order give BGRA bytes.
+     */
+    public void writeFrame(int frame, int[] pixels) throws IOException {
+        if (converter != null) {
+            converter.convert(pixels, yuvBuffer);
+            out.write(yuvBuffer);
+            return;
+        }
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int argb = pixels[p++];
+                rawRowBuffer[i++] = (byte) argb;
+                rawRowBuffer[i++] = (byte) (argb >> 8);
+                rawRowBuffer[i++] = (byte) (argb >> 16);
+                rawRowBuffer[i++] = (byte) (argb >>> 24);
+            }
+            out.write(rawRowBuffer);
+        }
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public void abort() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // The process is being stopped anyway.
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.File;
+
+/**
+ * An extra version of a movie at a different size and bit rate, encoded from the same frames as the movie.
+ * <p/>
+ * All renditions of a movie are written by the ffmpeg process that writes the movie, so the frames are rendered,
+ * stored and decoded only once. The renditions use the codec and compression quality of the movie.
+ */
+public class Rendition {
+
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int bitRate;
+
+    /**
+     * Creates a rendition with a bit rate that is estimated from its size.
+     *
+     * @param file   the movie file of the rendition. The extension determines the container format.
+     * @param width  the width of the rendition, in pixels; an even number.
+     * @param height the height of the rendition, in pixels; an even number.
+     */
+    public Rendition(File file, int width, int height) {
+        this(file, width, height, 0);
+    }
+
+    /**
+     * Creates a rendition.
+     *
+     * @param file    the movie file of the rendition. The extension determines the container format.
+     * @param width   the width of the rendition, in pixels; an even number.
+     * @param height  the height of the rendition, in pixels; an even number.
+     * @param bitRate the bit rate in kbit/s, or 0 to estimate the bit rate from the size.
+     */
+    public Rendition(File file, int width, int height, int bitRate) {
+        if (file == null) {
+            throw new IllegalArgumentException("The file of a rendition cannot be null.");
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("The size of a rendition must be positive.");
+        }
+        // Renditions are encoded as yuv420p, which has a chroma sample for every two by two pixels.
+        if (width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("The width and height of a rendition must be even.");
+        }
+        if (bitRate < 0) {
+            throw new IllegalArgumentException("The bit rate cannot be negative.");
+        }
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.bitRate = bitRate;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the bit rate that was set for this rendition.
+     *
+     * @return the bit rate in kbit/s, or 0 if the bit rate is estimated.
+     */
+    public int getBitRate() {
+        return bitRate;
+    }
+
+}
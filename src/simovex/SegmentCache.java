@@ -0,0 +1,149 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An on-disk cache of encoded movie segments, shared by movies that are exported again with small changes.
+ * <p/>
+ * Segments are stored under a name made of the hash of their frames and the encoding settings, so a segment whose
+ * frames did not change is copied from the cache instead of being encoded again. When the total size of the cache
+ * exceeds its limit, the least recently used segments are removed. The last modification time of a file records
+ * when it was last used, so the order survives between runs. The cache can be shared between threads.
+ */
+public class SegmentCache {
+
+    private static final String TEMPORARY_SUFFIX = ".part";
+
+    private final File directory;
+    private final long maxSize;
+    // In access order: the least recently used segment comes first.
+    private final LinkedHashMap<String, Long> segments = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size = 0;
+
+    /**
+     * Opens the cache in the given directory, creating it if needed.
+     *
+     * @param directory the cache directory. It should not be used for anything else.
+     * @param maxSize   the maximum total size of the segments, in bytes.
+     */
+    public SegmentCache(File directory, long maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("The maximum size cannot be negative.");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new RuntimeException("Cannot use " + directory + " as a segment cache.");
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                // Left behind by a process that stopped while adding a segment.
+                file.delete();
+            } else if (file.isFile()) {
+                segments.put(file.getName(), file.length());
+                size += file.length();
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the total size of the segments in the cache, in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Copies a cached segment to the given file.
+     *
+     * @param name   the name of the segment.
+     * @param target the file that receives the segment.
+     * @return true if the segment was in the cache.
+     * @throws IOException if the segment could not be copied.
+     */
+    public synchronized boolean get(String name, File target) throws IOException {
+        if (segments.get(name) == null) return false;
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            // Removed by someone else.
+            size -= segments.remove(name);
+            return false;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        Movie.copyFile(file, target);
+        return true;
+    }
+
+    /**
+     * Adds a copy of the segment to the cache, then removes the least recently used segments if the cache is full.
+     *
+     * @param name   the name of the segment. It is used as file name.
+     * @param source the encoded segment.
+     * @throws IOException if the segment could not be copied.
+     */
+    public synchronized void put(String name, File source) throws IOException {
+        if (source.length() > maxSize) return;
+        File file = new File(directory, name);
+        File temporaryFile = new File(directory, name + TEMPORARY_SUFFIX);
+        Movie.copyFile(source, temporaryFile);
+        file.delete();
+        if (!temporaryFile.renameTo(file)) {
+            temporaryFile.delete();
+            throw new IOException("Could not add " + file + " to the segment cache.");
+        }
+        Long previous = segments.put(name, file.length());
+        if (previous != null) {
+            size -= previous;
+        }
+        size += file.length();
+        Iterator<Map.Entry<String, Long>> it = segments.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> segment = it.next();
+            new File(directory, segment.getKey()).delete();
+            size -= segment.getValue();
+            it.remove();
+        }
+    }
+
+}
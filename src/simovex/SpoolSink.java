@@ -0,0 +1,108 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends every frame as raw BGRA pixels to a single file.
+ * <p/>
+ * If a converter is given, frames are stored as yuv420p instead. Frames have a fixed size, of width * height * 4 bytes
+ * for BGRA. Every frame is copied into the same direct buffer and written with a single channel write. The file is
+ * not memory-mapped: a mapping cannot be released on demand, and Windows neither truncates nor deletes a file that
+ * is still mapped.
+ */
+class SpoolSink implements FrameSink {
+
+    private final File file;
+    private final int frameSize;
+    private final Yuv420Converter converter;
+    private final byte[] yuvBuffer;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final ByteBuffer frameBuffer;
+    private final IntBuffer intFrameBuffer;
+
+    public SpoolSink(File file, int width, int height) throws IOException {
+        this(file, width, height, null);
+    }
+
+    /**
+     * Creates the spool file.
+     *
+     * @param file      the spool file.
+     * @param width     the width of the frames.
+     * @param height    the height of the frames.
+     * @param converter the converter to yuv420p, or null to store BGRA frames.
+     * @throws IOException if the file could not be created.
+     */
+    public SpoolSink(File file, int width, int height, Yuv420Converter converter) throws IOException {
+        this.file = file;
+        this.converter = converter;
+        frameSize = width * height;
+        int frameBytes = converter == null ? frameSize * 4 : converter.getFrameSize();
+        yuvBuffer = converter == null ? null : new byte[frameBytes];
+        frameBuffer = ByteBuffer.allocateDirect(frameBytes).order(ByteOrder.LITTLE_ENDIAN);
+        intFrameBuffer = frameBuffer.asIntBuffer();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        // Start from an empty file if an old spool file was left behind.
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Writes the pixels to the spool file.
+     * <p/>
+     * ARGB integers stored in little-endian order give BGRA bytes, so the pixels are copied in bulk.
+     */
+    public void writeFrame(int frame, int[] pixels) throws IOException {
+        frameBuffer.clear();
+        if (converter == null) {
+            intFrameBuffer.clear();
+            intFrameBuffer.put(pixels, 0, frameSize);
+        } else {
+            converter.convert(pixels, yuvBuffer);
+            frameBuffer.put(yuvBuffer);
+            frameBuffer.flip();
+        }
+        while (frameBuffer.hasRemaining()) {
+            channel.write(frameBuffer);
+        }
+    }
+
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    public void abort() {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            // The file is deleted anyway.
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Converts ARGB pixels to planar YUV 4:2:0, the pixel format most video codecs encode.
+ * <p/>
+ * The output has a full-size luma plane followed by the two chroma planes at half the width and height, as ffmpeg's
+ * yuv420p format. That is 1.5 bytes per pixel instead of 4 for BGRA. Colors are converted with the BT.601
+ * limited-range coefficients ffmpeg uses by default; every chroma sample is the average of a 2x2 block of pixels.
+ * Alpha is ignored.
+ * <p/>
+ * Large frames can be split into bands of rows that are converted at the same time on an executor service.
+ */
+class Yuv420Converter {
+
+    private static final int MIN_ROWS_PER_BAND = 64;
+    // The coefficients are 16-bit fixed point; the offsets include 0.5 for rounding.
+    private static final int Y_OFFSET = (16 << 16) + (1 << 15);
+    private static final int C_OFFSET = (128 << 16) + (1 << 15);
+
+    private final int width, height;
+    private final int chromaWidth, chromaHeight;
+    private final ExecutorService executor;
+    private final int bands;
+
+    /**
+     * Creates a converter for frames of the given size.
+     *
+     * @param width    the width of the frames.
+     * @param height   the height of the frames.
+     * @param executor the executor used to convert bands of rows at the same time, or null to convert on the
+     *                 calling thread.
+     * @param bands    the maximum number of bands a frame is split into.
+     */
+    public Yuv420Converter(int width, int height, ExecutorService executor, int bands) {
+        this.width = width;
+        this.height = height;
+        chromaWidth = (width + 1) / 2;
+        chromaHeight = (height + 1) / 2;
+        this.executor = executor;
+        // Bands start on an even row, so no two bands write the same chroma row.
+        this.bands = executor == null ? 1 : Math.max(1, Math.min(bands, chromaHeight * 2 / MIN_ROWS_PER_BAND));
+    }
+
+    /**
+     * Returns the size of a converted frame in bytes.
+     */
+    public int getFrameSize() {
+        return width * height + 2 * chromaWidth * chromaHeight;
+    }
+
+    /**
+     * Converts a frame.
+     *
+     * @param argb the ARGB pixels of the frame.
+     * @param yuv  the array that receives the converted frame, of at least getFrameSize() bytes.
+     * @throws IOException if the conversion was interrupted.
+     */
+    public void convert(final int[] argb, final byte[] yuv) throws IOException {
+        if (bands == 1) {
+            convertRows(argb, yuv, 0, height);
+            return;
+        }
+        int rowsPerBand = (chromaHeight + bands - 1) / bands * 2;
+        List<Future<?>> futures = new ArrayList<Future<?>>(bands);
+        for (int y = 0; y < height; y += rowsPerBand) {
+            final int y0 = y;
+            final int y1 = Math.min(height, y + rowsPerBand);
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() {
+                    convertRows(argb, yuv, y0, y1);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            InterruptedIOException ie = new InterruptedIOException("Interrupted while converting a frame.");
+            ie.initCause(e);
+            throw ie;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Converts the rows from y0 up to y1. y0 must be even.
+     */
+    private void convertRows(int[] argb, byte[] yuv, int y0, int y1) {
+        for (int i = y0 * width, end = y1 * width; i < end; i++) {
+            int p = argb[i];
+            int r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+            yuv[i] = (byte) ((16829 * r + 33039 * g + 6416 * b + Y_OFFSET) >> 16);
+        }
+        int uPlane = width * height;
+        int vPlane = uPlane + chromaWidth * chromaHeight;
+        for (int y = y0; y < y1; y += 2) {
+            int row0 = y * width;
+            // The last row and column of odd-sized frames are paired with themselves.
+            int row1 = y + 1 < height ? row0 + width : row0;
+            int c = (y >> 1) * chromaWidth;
+            for (int x = 0; x < width; x += 2, c++) {
+                int x1 = x + 1 < width ? x + 1 : x;
+                int p00 = argb[row0 + x], p01 = argb[row0 + x1], p10 = argb[row1 + x], p11 = argb[row1 + x1];
+                int r = (((p00 >> 16) & 0xff) + ((p01 >> 16) & 0xff) + ((p10 >> 16) & 0xff) + ((p11 >> 16) & 0xff) + 2) >> 2;
+                int g = (((p00 >> 8) & 0xff) + ((p01 >> 8) & 0xff) + ((p10 >> 8) & 0xff) + ((p11 >> 8) & 0xff) + 2) >> 2;
+                int b = ((p00 & 0xff) + (p01 & 0xff) + (p10 & 0xff) + (p11 & 0xff) + 2) >> 2;
+                yuv[uPlane + c] = (byte) ((-9714 * r - 19071 * g + 28784 * b + C_OFFSET) >> 16);
+                yuv[vPlane + c] = (byte) ((28784 * r - 24103 * g - 4681 * b + C_OFFSET) >> 16);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class BitRateModelTest extends TestCase {
+
+    /**
+     * Test if the bit rate follows the size of the movie, the frame rate and the quality.
+     */
+    public void testBitRate() {
+        int small = bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.MEDIUM, 320, 240, 25);
+        int large = bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.MEDIUM, 1920, 1080, 25);
+        assertTrue("Small movies used to get 1000 kbit/s: " + small, small < 1000);
+        assertTrue("HD movies used to get 1000 kbit/s: " + large, large > 3000);
+        // Larger frames need fewer bits per pixel.
+        assertTrue(large < small * 27);
+        assertTrue(bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.MEDIUM, 640, 480, 50)
+                > bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.MEDIUM, 640, 480, 25));
+        assertTrue(bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.BEST, 640, 480, 25)
+                > bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.LOW, 640, 480, 25));
+        assertTrue(bitRate(Movie.CodecType.H264, Movie.CompressionQuality.MEDIUM, 640, 480, 25)
+                < bitRate(Movie.CodecType.FLV, Movie.CompressionQuality.MEDIUM, 640, 480, 25));
+    }
+
+    /**
+     * Test if lossless codecs do not get a bit rate.
+     */
+    public void testLosslessCodecs() {
+        assertEquals(0, bitRate(Movie.CodecType.RAW, Movie.CompressionQuality.MEDIUM, 640, 480, 25));
+        assertEquals(0, bitRate(Movie.CodecType.ANIMATION, Movie.CompressionQuality.MEDIUM, 640, 480, 25));
+    }
+
+    /**
+     * Test if the complexity probe detects static and changing content.
+     */
+    public void testComplexityProbe() {
+        int width = 100, height = 50;
+        ComplexityProbe probe = new ComplexityProbe(width, height);
+        assertEquals(1.0, probe.getComplexity());
+        int[] black = new int[width * height];
+        Arrays.fill(black, 0xff000000);
+        int[] white = new int[width * height];
+        Arrays.fill(white, 0xffffffff);
+        probe.addFrame(black);
+        probe.addFrame(black);
+        assertEquals(0.0, probe.getMeanDelta());
+        assertEquals(0.6, probe.getComplexity(), 0.0001);
+        probe = new ComplexityProbe(width, height);
+        probe.addFrame(black);
+        probe.addFrame(white);
+        probe.addFrame(black);
+        assertEquals(1.0, probe.getMeanDelta(), 0.0001);
+        assertEquals(2.0, probe.getComplexity(), 0.0001);
+    }
+
+    /**
+     * Test if a movie uses the bit rate that was set.
+     */
+    public void testMovieBitRate() {
+        Movie m = new Movie("test.mov", 320, 240, Movie.CodecType.MPEG4, Movie.CompressionQuality.MEDIUM, false);
+        assertEquals(bitRate(Movie.CodecType.MPEG4, Movie.CompressionQuality.MEDIUM, 320, 240, 25), m.getBitRate());
+        m.setBitRate(1500);
+        assertEquals(1500, m.getBitRate());
+    }
+
+    private int bitRate(Movie.CodecType codecType, Movie.CompressionQuality quality, int width, int height, double frameRate) {
+        return BitRateModel.bitRate(codecType, quality, width, height, frameRate, 1);
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+public class EncodingProgressTest extends TestCase {
+
+    /**
+     * Test parsing the progress lines of current ffmpeg versions.
+     */
+    public void testParse() {
+        EncodingProgress p = EncodingProgress.parse("frame=  250 fps= 61 q=28.0 size=    1024kB time=00:01:10.50 bitrate= 838.9kbits/s speed=2.44x");
+        assertEquals(250, p.getFrame());
+        assertEquals(61.0, p.getFps());
+        assertEquals(1024 * 1024, p.getSize());
+        assertEquals(70.5, p.getTime(), 0.001);
+        assertEquals(838.9, p.getBitRate(), 0.001);
+        assertEquals(2.44, p.getSpeed(), 0.001);
+    }
+
+    /**
+     * Test parsing the final progress line of older ffmpeg versions, which give the time in seconds.
+     */
+    public void testParseOldFormat() {
+        EncodingProgress p = EncodingProgress.parse("frame=   20 fps=  0 q=0.0 Lsize=      12kB time=0.76 bitrate= 129.4kbits/s");
+        assertEquals(20, p.getFrame());
+        assertEquals(12 * 1024, p.getSize());
+        assertEquals(0.76, p.getTime(), 0.001);
+        assertEquals(-1.0, p.getSpeed());
+    }
+
+    /**
+     * Test if unknown values are reported as -1.
+     */
+    public void testNotAvailable() {
+        EncodingProgress p = EncodingProgress.parse("frame=    0 fps=0.0 q=0.0 size=N/A time=N/A bitrate=N/A speed=N/A");
+        assertEquals(0, p.getFrame());
+        assertEquals(-1, p.getSize());
+        assertEquals(-1.0, p.getTime());
+        assertEquals(-1.0, p.getBitRate());
+    }
+
+    /**
+     * Test if other lines are not parsed as progress.
+     */
+    public void testOtherLines() {
+        assertNull(EncodingProgress.parse("Input #0, image2, from '/tmp/sme123-%05d.png':"));
+        assertNull(EncodingProgress.parse(""));
+    }
+
+    /**
+     * Test if the log buffer only keeps the last lines.
+     */
+    public void testLogBuffer() {
+        LogBuffer log = new LogBuffer(3);
+        log.add("a");
+        log.add("b");
+        assertEquals("a\nb\n", log.toString());
+        log.add("c");
+        log.add("d");
+        log.add("e");
+        assertEquals("c\nd\ne\n", log.toString());
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ExportSchedulerTest extends TestCase {
+
+    /**
+     * Test how cores are divided between exports.
+     */
+    public void testThreadsPerExport() {
+        assertEquals(16, ExportScheduler.threadsPerExport(16, 1, 4));
+        assertEquals(8, ExportScheduler.threadsPerExport(16, 2, 4));
+        assertEquals(4, ExportScheduler.threadsPerExport(16, 4, 4));
+        assertEquals(4, ExportScheduler.threadsPerExport(16, 20, 4));
+        assertEquals(1, ExportScheduler.threadsPerExport(2, 4, 4));
+    }
+
+    /**
+     * Test if all submitted movies are exported.
+     */
+    public void testSubmit() throws Exception {
+        ExportScheduler scheduler = new ExportScheduler(2, 4);
+        List<Future<ExportResult>> futures = new ArrayList<Future<ExportResult>>();
+        List<File> movieFiles = new ArrayList<File>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                Movie m = new Movie("test-" + i + ".mov", 100, 100);
+                m.addFrame(new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB));
+                movieFiles.add(m.getMovieFile());
+                futures.add(scheduler.submit(m));
+            }
+            for (Future<ExportResult> future : futures) {
+                assertTrue(future.get().isSuccessful());
+            }
+            scheduler.shutdown();
+            assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(3, scheduler.getCompletedJobs());
+            assertEquals(0, scheduler.getActiveJobs());
+            assertEquals(0, scheduler.getQueueDepth());
+        } finally {
+            for (File f : movieFiles) {
+                f.delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class FfmpegVersionTest extends TestCase {
+
+    private static final File BINARY = new File("ffmpeg");
+
+    /**
+     * Test if the Subversion builds in platform are recognized as old builds that read preset files.
+     */
+    public void testSubversionBuild() {
+        FfmpegVersion version = new FfmpegVersion(BINARY,
+                "FFmpeg version git-svn-r21062, Copyright (c) 2000-2010 Fabrice Bellard, et al.\n");
+        assertEquals("git-svn-r21062", version.getVersion());
+        assertTrue(version.usesPresetFiles());
+        assertFalse(version.isModern());
+        try {
+            version.require("Live output");
+            fail("Old builds cannot write live output.");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(e.getMessage().indexOf("git-svn-r21062") >= 0);
+        }
+    }
+
+    public void testReleases() {
+        FfmpegVersion version = new FfmpegVersion(BINARY, "ffmpeg version 0.8.5, Copyright (c) 2000-2011\n");
+        assertTrue(version.usesPresetFiles());
+        assertFalse(version.isModern());
+        version = new FfmpegVersion(BINARY, "ffmpeg version 3.4.11 Copyright (c) 2000-2022\n");
+        assertFalse(version.usesPresetFiles());
+        assertFalse(version.isModern());
+        version = new FfmpegVersion(BINARY, "ffmpeg version 4.4.2-0ubuntu0.22.04.1 Copyright (c) 2000-2021\n"
+                + "built with gcc 11 (Ubuntu 11.2.0-19ubuntu1)\n");
+        assertEquals("4.4.2-0ubuntu0.22.04.1", version.getVersion());
+        assertFalse(version.usesPresetFiles());
+        assertTrue(version.isModern());
+        version.require("Live output");
+        assertTrue(new FfmpegVersion(BINARY, "ffmpeg version n6.0 Copyright (c) 2000-2023\n").isModern());
+    }
+
+    /**
+     * Test if builds without a release number, and binaries that could not be run, are taken for recent builds.
+     */
+    public void testUnknownVersion() {
+        FfmpegVersion version = new FfmpegVersion(BINARY, "ffmpeg version N-112345-gabcdef0 Copyright (c) 2000-2023\n"
+                + "built with Apple clang version 14.0.3\n");
+        assertFalse(version.usesPresetFiles());
+        assertTrue(version.isModern());
+        version = new FfmpegVersion(BINARY, "");
+        assertEquals("unknown", version.getVersion());
+        assertTrue(version.isModern());
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+public class FrameEncoderTest extends TestCase {
+
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 7;
+
+    /**
+     * Test if the fast PNG encoder creates images that can be read back.
+     */
+    public void testFastPng() throws IOException {
+        int[] pixels = createPixels(false);
+        FastPngFrameEncoder encoder = new FastPngFrameEncoder(Deflater.BEST_SPEED);
+        assertPixels(pixels, encode(encoder, pixels));
+        // The encoder state is reused for the next frame.
+        pixels[0] = 0x80123456;
+        assertPixels(pixels, encode(encoder, pixels));
+        // Disposing ends the deflaters, but the encoder creates new ones when needed.
+        encoder.dispose();
+        pixels[1] = 0xff654321;
+        assertPixels(pixels, encode(encoder, pixels));
+        encoder.dispose();
+    }
+
+    /**
+     * Test if stored, uncompressed PNG data can be read back.
+     */
+    public void testUncompressedPng() throws IOException {
+        int[] pixels = createPixels(false);
+        assertPixels(pixels, encode(new FastPngFrameEncoder(Deflater.NO_COMPRESSION), pixels));
+    }
+
+    /**
+     * Test if BMP images can be read back. BMP readers ignore the alpha channel, so the pixels are opaque.
+     */
+    public void testBmp() throws IOException {
+        int[] pixels = createPixels(true);
+        byte[] bytes = encode(new BmpFrameEncoder(), pixels);
+        assertEquals(54 + WIDTH * HEIGHT * 4, bytes.length);
+        assertPixels(pixels, bytes);
+    }
+
+    /**
+     * Test the layout of PAM images.
+     */
+    public void testPam() throws IOException {
+        int[] pixels = createPixels(false);
+        byte[] bytes = encode(new PamFrameEncoder(), pixels);
+        String header = "P7\nWIDTH 13\nHEIGHT 7\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n";
+        assertEquals(header, new String(bytes, 0, header.length(), "US-ASCII"));
+        assertEquals(header.length() + WIDTH * HEIGHT * 4, bytes.length);
+        int last = pixels[pixels.length - 1];
+        int offset = bytes.length - 4;
+        assertEquals((last >> 16) & 0xff, bytes[offset] & 0xff);
+        assertEquals(last >>> 24, bytes[offset + 3] & 0xff);
+    }
+
+    private byte[] encode(FrameEncoder encoder, int[] pixels) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(pixels, WIDTH, HEIGHT, out);
+        return out.toByteArray();
+    }
+
+    private void assertPixels(int[] expected, byte[] bytes) throws IOException {
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(bytes));
+        assertEquals(WIDTH, img.getWidth());
+        assertEquals(HEIGHT, img.getHeight());
+        int[] actual = img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Pixel " + i, expected[i], actual[i]);
+        }
+    }
+
+    private int[] createPixels(boolean opaque) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            int alpha = opaque ? 255 : (i * 7) & 0xff;
+            pixels[i] = alpha << 24 | (i * 3 & 0xff) << 16 | (i * 5 & 0xff) << 8 | (i * 11 & 0xff);
+        }
+        return pixels;
+    }
+
+}
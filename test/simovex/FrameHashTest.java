@@ -0,0 +1,48 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+public class FrameHashTest extends TestCase {
+
+    public void testIdenticalFrames() {
+        int[] a = new int[101];
+        int[] b = new int[101];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i * 31;
+            b[i] = i * 31;
+        }
+        assertEquals(FrameHash.hash(a), FrameHash.hash(b));
+    }
+
+    public void testChangedPixel() {
+        int[] a = new int[101];
+        int[] b = new int[101];
+        b[100] = 1;
+        assertFalse(FrameHash.hash(a) == FrameHash.hash(b));
+        b[100] = 0;
+        b[0] = 1;
+        assertFalse(FrameHash.hash(a) == FrameHash.hash(b));
+    }
+
+    public void testSwappedPixels() {
+        int[] a = {1, 2, 3, 4};
+        int[] b = {2, 1, 3, 4};
+        assertFalse(FrameHash.hash(a) == FrameHash.hash(b));
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+public class ImagePixelsTest extends TestCase {
+
+    private static final int WIDTH = 7;
+    private static final int HEIGHT = 5;
+
+    /**
+     * Test if an ARGB image is returned without copying its pixels.
+     */
+    public void testArgbIsNotCopied() {
+        BufferedImage img = createImage(BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ImagePixels.extract(img, new int[WIDTH * HEIGHT], null);
+        assertSame(((DataBufferInt) img.getRaster().getDataBuffer()).getData(), pixels);
+    }
+
+    /**
+     * Test if the fast paths give the same result as getRGB.
+     */
+    public void testImageTypes() {
+        assertPixels(createImage(BufferedImage.TYPE_INT_RGB));
+        assertPixels(createImage(BufferedImage.TYPE_3BYTE_BGR));
+        assertPixels(createImage(BufferedImage.TYPE_4BYTE_ABGR));
+        assertPixels(createImage(BufferedImage.TYPE_USHORT_565_RGB));
+    }
+
+    /**
+     * Test if a sub-image, which shares the pixel array of its parent, is read correctly.
+     */
+    public void testSubImage() {
+        BufferedImage parent = new BufferedImage(WIDTH + 3, HEIGHT + 2, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = parent.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, parent.getWidth(), parent.getHeight());
+        g.dispose();
+        assertPixels(parent.getSubimage(2, 1, WIDTH, HEIGHT));
+    }
+
+    /**
+     * Test if only the pixels in the region are copied.
+     */
+    public void testRegion() {
+        assertRegion(createImage(BufferedImage.TYPE_INT_ARGB));
+        assertRegion(createImage(BufferedImage.TYPE_INT_RGB));
+        assertRegion(createImage(BufferedImage.TYPE_3BYTE_BGR));
+        assertRegion(createImage(BufferedImage.TYPE_4BYTE_ABGR));
+        assertRegion(createImage(BufferedImage.TYPE_USHORT_565_RGB));
+    }
+
+    private void assertRegion(BufferedImage img) {
+        Rectangle region = new Rectangle(1, 2, 4, 2);
+        int[] expected = img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        BufferedImage bufferImage = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int[] buffer = ((DataBufferInt) bufferImage.getRaster().getDataBuffer()).getData();
+        ImagePixels.extract(img, region, buffer, bufferImage);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                int pixel = region.contains(x, y) ? expected[i] : 0;
+                assertEquals("Pixel " + i + " of image type " + img.getType(), pixel, buffer[i]);
+            }
+        }
+    }
+
+    private void assertPixels(BufferedImage img) {
+        int[] expected = img.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        BufferedImage bufferImage = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        int[] buffer = ((DataBufferInt) bufferImage.getRaster().getDataBuffer()).getData();
+        int[] pixels = ImagePixels.extract(img, buffer, bufferImage);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Pixel " + i + " of image type " + img.getType(), expected[i], pixels[i]);
+        }
+    }
+
+    private BufferedImage createImage(int type) {
+        BufferedImage img = new BufferedImage(WIDTH, HEIGHT, type);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(10, 20, 30));
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setColor(new Color(200, 100, 50, 128));
+        g.fillRect(1, 1, 3, 2);
+        g.dispose();
+        return img;
+    }
+
+}
@@ -17,10 +17,26 @@ package simovex;
 
 import junit.framework.TestCase;
 
+import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 
 public class MovieTest extends TestCase {
 
@@ -50,6 +66,812 @@ public class MovieTest extends TestCase {
         assertTrue(m.getMovieFile().exists());
     }
 
+    /**
+     * Test if the movie can be saved in the background.
+     */
+    public void testSaveAsync() throws Exception {
+        Movie m = createMovie("test.mov", 2);
+        Future<ExportResult> future = m.saveAsync();
+        ExportResult result = future.get();
+        assertTrue(result.isSuccessful());
+        assertEquals(2, result.getFrameCount());
+        assertEquals(m.getMovieFile().length(), result.getFileSize());
+        assertFalse(m.temporaryFileForFrame(0).exists());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if cancelling an export that has not started yet removes the temporary files.
+     */
+    public void testCancelExport() {
+        Movie m = createMovie("test.mov", 2);
+        ExportTask task = new ExportTask(m);
+        assertTrue(task.cancel(true));
+        assertFalse(m.temporaryFileForFrame(0).exists());
+        assertFalse(m.temporaryFileForFrame(1).exists());
+        task.run();
+        assertTrue(task.isCancelled());
+        assertFalse(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if the movie can be created by streaming frames to ffmpeg.
+     */
+    public void testStreamingSave() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Movie m = new Movie(movieFile, size, size);
+        m.setExportMode(Movie.ExportMode.STREAMING);
+        for (int i = 0; i < 2; i++) {
+            m.addFrame(img);
+            assertFalse(m.temporaryFileForFrame(i).exists());
+        }
+        m.save();
+        assertEquals(2, m.getFrameCount());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if frames can be streamed to ffmpeg as YUV, converted on several threads.
+     */
+    public void testYuvStreamingSave() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        ExecutorService service = Executors.newFixedThreadPool(2);
+        try {
+            Movie m = new Movie(movieFile, size, size);
+            m.setExportMode(Movie.ExportMode.STREAMING);
+            m.setRawPixelFormat(Movie.RawPixelFormat.YUV420P);
+            m.setEncoderService(service);
+            for (int i = 0; i < 2; i++) {
+                m.addFrame(img);
+            }
+            m.save();
+            assertTrue(m.getMovieFile().exists());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Test if audio from a file and from PCM samples is muxed in the same export.
+     */
+    public void testAudioTracks() throws Exception {
+        File audioFile = new File(markForDeletion("test.wav"));
+        // One second of silence.
+        AudioFormat format = new AudioFormat(44100, 16, 2, true, false);
+        AudioInputStream silence = new AudioInputStream(new ByteArrayInputStream(new byte[44100 * 4]), format, 44100);
+        AudioSystem.write(silence, AudioFileFormat.Type.WAVE, audioFile);
+        ByteBuffer samples = ByteBuffer.allocate(44100 * 4);
+        Movie m = createMovie("test.mov", 2);
+        if (!Movie.getFfmpegVersion().isModern()) {
+            try {
+                m.addAudioTrack(new AudioTrack(audioFile));
+                fail("Old ffmpeg builds have no stream specifiers to map the tracks.");
+            } catch (UnsupportedOperationException e) {
+                m.cleanup();
+                return;
+            }
+        }
+        m.addAudioTrack(new AudioTrack(audioFile));
+        m.addAudioTrack(new AudioTrack(samples, 44100, 2));
+        m.addAudioTrack(new AudioTrack(new ByteArrayInputStream(new byte[1000]), 22050, 1));
+        assertEquals(3, m.getAudioTracks().size());
+        ExportResult result = m.export();
+        assertTrue(result.isSuccessful());
+        assertTrue(m.getMovieFile().exists());
+        assertEquals(0, samples.position());
+    }
+
+    /**
+     * Test if a failed export reports the output of ffmpeg.
+     */
+    public void testFailedExportOutput() {
+        // A missing audio file makes ffmpeg fail.
+        if (!Movie.getFfmpegVersion().isModern()) return;
+        Movie m = createMovie("test.mov", 2);
+        m.addAudioTrack(new AudioTrack(new File("does-not-exist.wav")));
+        ExportResult result = m.export();
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getOutput().indexOf("does-not-exist.wav") >= 0);
+    }
+
+    /**
+     * Test if the movie can be written to a channel instead of a file.
+     */
+    public void testOutputChannel() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Movie m = new Movie(markForDeletion("test.mp4"), 100, 100);
+        m.setExportMode(Movie.ExportMode.STREAMING);
+        if (!Movie.getFfmpegVersion().isModern()) {
+            try {
+                m.setOutputChannel(Channels.newChannel(out), Movie.StreamFormat.FRAGMENTED_MP4);
+                fail("Old ffmpeg builds cannot write fragmented MP4.");
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+        }
+        m.setOutputChannel(Channels.newChannel(out), Movie.StreamFormat.FRAGMENTED_MP4);
+        m.addFrame(new int[100 * 100]);
+        m.addFrame(new int[100 * 100]);
+        ExportResult result = m.export();
+        assertTrue(result.isSuccessful());
+        assertTrue(out.size() > 0);
+        assertFalse(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if an HLS playlist is written while frames are streamed.
+     */
+    public void testLiveOutput() {
+        // The playlist, the init segment and the media segments are written next to each other.
+        File dir = new File(System.getProperty("java.io.tmpdir"), "simovex-live-test");
+        dir.mkdirs();
+        try {
+            Movie m = new Movie(new File(dir, "test.m3u8").getPath(), 100, 100);
+            m.setExportMode(Movie.ExportMode.STREAMING);
+            if (!Movie.getFfmpegVersion().isModern()) {
+                try {
+                    m.setLiveOutput(Movie.LiveFormat.HLS_FMP4, 2);
+                    fail("Old ffmpeg builds cannot write live output.");
+                } catch (UnsupportedOperationException e) {
+                    return;
+                }
+            }
+            m.setLiveOutput(Movie.LiveFormat.HLS_FMP4, 2);
+            try {
+                m.setOutputChannel(Channels.newChannel(new ByteArrayOutputStream()), Movie.StreamFormat.MPEG_TS);
+                fail("Live output cannot be combined with an output channel.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            m.addFrame(new int[100 * 100]);
+            m.addFrame(new int[100 * 100]);
+            assertTrue(m.export().isSuccessful());
+            assertTrue(m.getMovieFile().exists());
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    public void testRenditions() {
+        Movie m = new Movie(markForDeletion("test.mov"), 100, 100);
+        m.setExportMode(Movie.ExportMode.STREAMING);
+        Rendition small = new Rendition(new File(markForDeletion("test-small.mov")), 50, 50, 200);
+        if (!Movie.getFfmpegVersion().isModern()) {
+            try {
+                m.addRendition(small);
+                fail("Old ffmpeg builds have no filter graphs.");
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+        }
+        m.addRendition(small);
+        try {
+            new Rendition(new File(markForDeletion("test-odd.mov")), 51, 50);
+            fail("The size of a rendition must be even.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        m.addFrame(new int[100 * 100]);
+        try {
+            m.addRendition(new Rendition(new File(markForDeletion("test-tiny.mov")), 20, 20));
+            fail("Renditions cannot be added after the first frame in streaming mode.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        m.addFrame(new int[100 * 100]);
+        assertTrue(m.export().isSuccessful());
+        assertTrue(m.getMovieFile().exists());
+        assertTrue(small.getFile().exists());
+    }
+
+    /**
+     * Test if the bit rate of a rendition is used at the BEST quality, instead of lossless settings that ignore it.
+     */
+    public void testRenditionBitRate() {
+        if (!Movie.getFfmpegVersion().isModern()) return;
+        Movie m = new Movie(markForDeletion("test.mov"), 100, 100, Movie.CodecType.H264, Movie.CompressionQuality.BEST, false);
+        m.addRendition(new Rendition(new File(markForDeletion("test-small.mov")), 50, 50, 300));
+        List<String> command = m.buildCommand(new ArrayList<String>());
+        List<String> renditionArguments = command.subList(command.indexOf("[v1]"), command.size());
+        assertTrue(renditionArguments.contains("300k"));
+        assertRateControlled(renditionArguments);
+    }
+
+    /**
+     * Test if temporary images are written in the chosen intermediate format.
+     */
+    public void testIntermediateFormat() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Movie m = new Movie(movieFile, size, size);
+        m.setIntermediateFormat(Movie.IntermediateFormat.BMP);
+        m.addFrame(img);
+        File frame = m.temporaryFileForFrame(0);
+        assertTrue(frame.getName().endsWith(".bmp"));
+        assertTrue(frame.exists());
+        m.cleanup();
+        assertFalse(frame.exists());
+    }
+
+    /**
+     * Test if consecutive identical frames are stored once and shown longer.
+     */
+    public void testCollapseDuplicateFrames() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        int[] a = new int[size * size];
+        int[] b = new int[size * size];
+        b[42] = 0xffff0000;
+        Movie m = new Movie(movieFile, size, size);
+        if (!Movie.getFfmpegVersion().isModern()) {
+            try {
+                m.setCollapseDuplicateFrames(true);
+                fail("Old ffmpeg builds have no concat demuxer.");
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+        }
+        m.setCollapseDuplicateFrames(true);
+        m.addFrame(a);
+        m.addFrame(a);
+        m.addFrame(a);
+        m.addFrame(b);
+        m.addFrame(b);
+        m.addFrame(a);
+        assertEquals(6, m.getFrameCount());
+        assertEquals(3, m.getStoredFrameCount());
+        assertTrue(m.temporaryFileForFrame(2).exists());
+        assertFalse(m.temporaryFileForFrame(3).exists());
+        m.save();
+        assertFalse(m.temporaryFileForFrame(0).exists());
+        assertFalse(m.getConcatFile().exists());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if frame rates are kept as fractions.
+     */
+    public void testFrameRate() {
+        Movie m = new Movie(markForDeletion("test.mov"), 100, 100);
+        assertEquals("25", m.getFrameRateString());
+        m.setFrameRate(30000, 1001);
+        assertEquals("30000/1001", m.getFrameRateString());
+        assertEquals(29.97, m.getFrameRate(), 0.001);
+        m.setFrameRate(60);
+        assertEquals("60", m.getFrameRateString());
+        m.setFrameRate(59.94);
+        assertEquals("2997/50", m.getFrameRateString());
+    }
+
+    /**
+     * Test if frames can be added with their own presentation time.
+     */
+    public void testTimestamps() {
+        int size = 100;
+        Movie m = new Movie(markForDeletion("test.mov"), size, size);
+        m.setFrameRate(60);
+        if (!Movie.getFfmpegVersion().isModern()) {
+            try {
+                m.addFrame(new int[size * size], 0.0);
+                fail("Old ffmpeg builds have no concat demuxer.");
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+        }
+        m.addFrame(new int[size * size], 0.0);
+        m.addFrame(new int[size * size], 0.5);
+        m.addFrame(new int[size * size]);
+        try {
+            m.addFrame(new int[size * size], 0.5);
+            fail("Timestamps should increase.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        try {
+            m.addFrame(new int[size * size], -0.5);
+            fail("Timestamps cannot be negative.");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+        m.addFrame(new int[size * size], 2.0);
+        assertEquals(4, m.getFrameCount());
+        m.save();
+        assertTrue(m.getMovieFile().exists());
+        assertFalse(m.getConcatFile().exists());
+    }
+
+    /**
+     * Test if frames with an empty dirty region are collapsed with the previous frame.
+     */
+    public void testDirtyRegion() {
+        // Unchanged frames are only visible when they are collapsed.
+        if (!Movie.getFfmpegVersion().isModern()) return;
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Movie m = new Movie(movieFile, size, size);
+        m.setCollapseDuplicateFrames(true);
+        m.addFrame(img, null);
+        m.addFrame(img, new Rectangle());
+        img.setRGB(10, 10, 0xff0000);
+        m.addFrame(img, new Rectangle(10, 10, 1, 1));
+        m.addFrame(img, new Rectangle(200, 200, 10, 10));
+        assertEquals(4, m.getFrameCount());
+        assertEquals(2, m.getStoredFrameCount());
+        m.cleanup();
+        assertFalse(m.temporaryFileForFrame(1).exists());
+    }
+
+    /**
+     * Test if the movie can be created from a spool file.
+     */
+    public void testSpoolSave() {
+        Movie m = createSpoolMovie(3);
+        m.save();
+        assertFalse(m.getSpoolFile().exists());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if the spool file holds 1.5 bytes per pixel for YUV frames.
+     */
+    public void testYuvSpool() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        Movie m = new Movie(movieFile, size, size);
+        m.setExportMode(Movie.ExportMode.SPOOL);
+        m.setRawPixelFormat(Movie.RawPixelFormat.YUV420P);
+        m.addFrame(new int[size * size]);
+        m.addFrame(new int[size * size]);
+        m.save();
+        assertFalse(m.getSpoolFile().exists());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if the spool file is removed.
+     */
+    public void testSpoolCleanup() {
+        Movie m = createSpoolMovie(3);
+        assertTrue(m.getSpoolFile().exists());
+        assertFalse(m.temporaryFileForFrame(0).exists());
+        m.cleanup();
+        assertFalse(m.getSpoolFile().exists());
+    }
+
+    /**
+     * Test if frames written on a background thread end up in the movie.
+     */
+    public void testQueuedSave() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Movie m = new Movie(movieFile, size, size);
+        m.setFrameQueueSize(2);
+        for (int i = 0; i < 10; i++) {
+            m.addFrame(img);
+        }
+        m.save();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(m.temporaryFileForFrame(i).exists());
+        }
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if temporary images are encoded in parallel without losing frames.
+     */
+    public void testParallelEncoding() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        ExecutorService service = Executors.newFixedThreadPool(4);
+        Movie m = new Movie(movieFile, size, size);
+        m.setEncoderService(service);
+        for (int i = 0; i < 10; i++) {
+            m.addFrame(img);
+        }
+        try {
+            // Cleanup waits for all frames, so any frame that exists now was written before cleanup returned.
+            m.cleanup();
+            for (int i = 0; i < 10; i++) {
+                assertFalse(m.temporaryFileForFrame(i).exists());
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Test if adding pixel frames allocates no memory per frame while streaming.
+     * <p/>
+     * Without a frame queue the frames are written to ffmpeg on the calling thread, so its allocations cover the
+     * whole path through the raw video sink.
+     */
+    public void testAddFrameAllocation() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) return;
+        int size = 100;
+        int frames = 200;
+        int[] pixels = new int[size * size];
+        Movie m = new Movie(markForDeletion("test.mov"), size, size);
+        m.setExportMode(Movie.ExportMode.STREAMING);
+        try {
+            // Warm up, so ffmpeg is started and the code paths are compiled.
+            for (int i = 0; i < 50; i++) {
+                m.addFrame(pixels);
+            }
+            long threadId = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < frames; i++) {
+                m.addFrame(pixels);
+            }
+            long bytesPerFrame = (threadBean.getThreadAllocatedBytes(threadId) - before) / frames;
+            // A single frame is 40000 bytes; only a few small objects from thread synchronization are allowed.
+            assertTrue("Allocated " + bytesPerFrame + " bytes per frame.", bytesPerFrame < 256);
+        } finally {
+            m.cleanup();
+        }
+    }
+
+    /**
+     * Test if the progress listener receives the progress reports of ffmpeg.
+     */
+    public void testProgressListener() {
+        final List<EncodingProgress> reports = new ArrayList<EncodingProgress>();
+        Movie m = createMovie("test.mov", 2);
+        m.setProgressListener(new ProgressListener() {
+            public void progressChanged(Movie movie, EncodingProgress progress) {
+                reports.add(progress);
+            }
+        });
+        m.save();
+        assertFalse(reports.isEmpty());
+        assertEquals(2, reports.get(reports.size() - 1).getFrame());
+    }
+
+    /**
+     * Test if streaming movies can use ffmpeg processes that were started in advance.
+     */
+    public void testEncoderPool() throws InterruptedException {
+        EncoderPool pool = new EncoderPool();
+        try {
+            int size = 100;
+            BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            for (int i = 0; i < 3; i++) {
+                Movie m = new Movie(markForDeletion("test-" + i + ".mov"), size, size);
+                m.setExportMode(Movie.ExportMode.STREAMING);
+                m.setEncoderPool(pool);
+                m.addFrame(img);
+                m.save();
+                assertTrue(m.getMovieFile().exists());
+                // Wait until the replacement process has started.
+                for (int j = 0; j < 100 && pool.getIdleProcessCount() == 0; j++) {
+                    Thread.sleep(50);
+                }
+                assertEquals(1, pool.getIdleProcessCount());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, pool.getIdleProcessCount());
+    }
+
+    /**
+     * Test if the pool stops the idle processes of the settings used least recently when it is full.
+     */
+    public void testEncoderPoolLimit() throws InterruptedException {
+        EncoderPool pool = new EncoderPool(1, 2);
+        try {
+            for (int i = 0; i < 3; i++) {
+                int size = 100 + i * 2;
+                Movie m = new Movie(markForDeletion("test-" + i + ".mov"), size, size);
+                m.setExportMode(Movie.ExportMode.STREAMING);
+                m.setEncoderPool(pool);
+                m.addFrame(new int[size * size]);
+                m.save();
+                int expected = Math.min(i + 1, 2);
+                for (int j = 0; j < 100 && pool.getIdleProcessCount() < expected; j++) {
+                    Thread.sleep(50);
+                }
+                assertEquals(expected, pool.getIdleProcessCount());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Test if the movie can be encoded in chunks that are joined afterwards.
+     */
+    public void testChunkedSave() {
+        Movie m = createMovie("test.mov", 5);
+        if (!Movie.getFfmpegVersion().isModern()) {
+            try {
+                m.setChunkCount(2);
+                fail("Old ffmpeg builds cannot join chunks.");
+            } catch (UnsupportedOperationException e) {
+                m.cleanup();
+                return;
+            }
+        }
+        m.setChunkCount(2);
+        ExportResult result = m.export();
+        assertTrue(result.isSuccessful());
+        assertEquals(5, result.getFrameCount());
+        assertFalse(m.temporaryFileForFrame(4).exists());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if a thread limit smaller than the number of chunks encodes the chunks one after the other.
+     */
+    public void testChunkedSaveWithThreads() {
+        if (!Movie.getFfmpegVersion().isModern()) return;
+        Movie m = createMovie("test.mov", 6);
+        m.setChunkCount(3);
+        m.setThreads(1);
+        ExportResult result = m.export();
+        assertTrue(result.isSuccessful());
+        assertEquals(6, result.getFrameCount());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if only the segments with changed frames are encoded again.
+     */
+    public void testSegmentCache() {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "simovex-movie-segment-test");
+        try {
+            SegmentCache cache = new SegmentCache(directory, 1000000);
+            if (!Movie.getFfmpegVersion().isModern()) {
+                try {
+                    new Movie(markForDeletion("test.mov"), 16, 16).setSegmentCache(cache);
+                    fail("Old ffmpeg builds cannot join segments.");
+                } catch (UnsupportedOperationException e) {
+                    return;
+                }
+            }
+            assertTrue(createSegmentMovie(cache, 0).export().isSuccessful());
+            assertEquals(2, cache.getSegmentCount());
+            assertTrue(createSegmentMovie(cache, 0).export().isSuccessful());
+            assertEquals(2, cache.getSegmentCount());
+            // A change in the second segment only adds a new version of that segment.
+            assertTrue(createSegmentMovie(cache, 0xffff0000).export().isSuccessful());
+            assertEquals(3, cache.getSegmentCount());
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    /**
+     * Test if settings that would bypass the segment cache are rejected.
+     */
+    public void testSegmentCacheConflicts() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "simovex-movie-segment-test");
+        try {
+            SegmentCache cache = new SegmentCache(directory, 1000000);
+            Movie m = new Movie(markForDeletion("test.mov"), 16, 16);
+            m.setExportMode(Movie.ExportMode.SPOOL);
+            try {
+                m.setSegmentCache(cache);
+                fail("Spooled frames cannot be cached in segments.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            if (!Movie.getFfmpegVersion().isModern()) return;
+            m = new Movie(markForDeletion("test.mov"), 16, 16);
+            m.setSegmentCache(cache);
+            try {
+                m.setTwoPass(true);
+                fail("Two-pass encodes are not cached in segments.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            try {
+                m.setExportMode(Movie.ExportMode.STREAMING);
+                fail("Streamed frames cannot be cached in segments.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            try {
+                m.addFrame(new int[16 * 16], 0.5);
+                fail("Timestamped frames are not cached in segments.");
+            } catch (IllegalStateException e) {
+                // Expected.
+            }
+            assertEquals(0, m.getFrameCount());
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    private Movie createSegmentMovie(SegmentCache cache, int lastPixel) {
+        String movieFile = markForDeletion("test.mov");
+        int size = 16;
+        Movie m = new Movie(movieFile, size, size);
+        m.setIntermediateFormat(Movie.IntermediateFormat.BMP);
+        m.setSegmentCache(cache);
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < 260; i++) {
+            pixels[0] = i;
+            if (i == 259) {
+                pixels[1] = lastPixel;
+            }
+            m.addFrame(pixels);
+        }
+        return m;
+    }
+
+    /**
+     * Test if a two-pass export stores the first-pass statistics in the cache and reuses them.
+     */
+    public void testTwoPass() {
+        File cache = new File(System.getProperty("java.io.tmpdir"), "simovex-passlog-test");
+        try {
+            Movie m = createTwoPassMovie(cache);
+            m.save();
+            assertTrue(m.getMovieFile().exists());
+            File[] cachedLogs = cache.listFiles();
+            assertTrue(cachedLogs.length > 0);
+            long lastModified = cachedLogs[0].lastModified();
+            m = createTwoPassMovie(cache);
+            m.save();
+            assertTrue(m.getMovieFile().exists());
+            assertEquals(cachedLogs.length, cache.listFiles().length);
+            assertEquals(lastModified, cachedLogs[0].lastModified());
+        } finally {
+            File[] files = cache.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            cache.delete();
+        }
+    }
+
+    /**
+     * Test if a bit rate is used at the BEST quality, instead of lossless settings that ignore it.
+     */
+    public void testBitRateAtBestQuality() {
+        Movie m = new Movie(markForDeletion("test.mov"), 100, 100, Movie.CodecType.H264, Movie.CompressionQuality.BEST, false);
+        m.setBitRate(800);
+        List<String> command = m.buildCommand(new ArrayList<String>());
+        assertTrue(command.contains("800k"));
+        assertRateControlled(command);
+    }
+
+    private void assertRateControlled(List<String> arguments) {
+        for (String argument : arguments) {
+            assertTrue(argument.indexOf("lossless") < 0);
+        }
+        assertFalse(arguments.contains("-qp"));
+    }
+
+    /**
+     * Test if a two-pass export works with a preset that uses B-frames, which must be the same in both passes.
+     */
+    public void testTwoPassMediumQuality() {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        Movie m = new Movie(movieFile, size, size, Movie.CodecType.H264, Movie.CompressionQuality.MEDIUM, false);
+        m.setTwoPass(true);
+        m.setBitRate(500);
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < 3; i++) {
+            pixels[i] = 0xff00ff00;
+            m.addFrame(pixels);
+        }
+        assertTrue(m.export().isSuccessful());
+        assertTrue(m.getMovieFile().exists());
+    }
+
+    /**
+     * Test if two-pass encoding is rejected in streaming mode, and reads the spool file twice in spool mode.
+     */
+    public void testTwoPassExportModes() {
+        Movie m = new Movie(markForDeletion("test.mov"), 100, 100);
+        m.setExportMode(Movie.ExportMode.STREAMING);
+        try {
+            m.setTwoPass(true);
+            fail("Streamed frames cannot be encoded twice.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+        File cache = new File(System.getProperty("java.io.tmpdir"), "simovex-passlog-spool-test");
+        try {
+            m = new Movie(markForDeletion("test.mov"), 100, 100);
+            m.setExportMode(Movie.ExportMode.SPOOL);
+            m.setTwoPass(true);
+            m.setPassLogCache(cache);
+            m.addFrame(new int[100 * 100]);
+            assertTrue(m.export().isSuccessful());
+            // The statistics of the first pass were stored.
+            assertTrue(cache.listFiles().length > 0);
+            for (File f : cache.listFiles()) {
+                assertFalse(f.getName().endsWith(".part"));
+            }
+        } finally {
+            File[] files = cache.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            cache.delete();
+        }
+    }
+
+    private Movie createTwoPassMovie(File passLogCache) {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        Movie m = new Movie(movieFile, size, size);
+        m.setTwoPass(true);
+        m.setPassLogCache(passLogCache);
+        int[] pixels = new int[size * size];
+        for (int i = 0; i < 3; i++) {
+            pixels[i] = 0xff00ff00;
+            m.addFrame(pixels);
+        }
+        return m;
+    }
+
+    /**
+     * Test if an interrupted movie can be resumed from its manifest.
+     */
+    public void testResume() throws Exception {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        Movie m = new Movie(movieFile, size, size);
+        m.setResumable(true);
+        for (int i = 0; i < 4; i++) {
+            m.addFrame(new int[size * size]);
+        }
+        File manifestFile = m.getManifestFile();
+        assertTrue(manifestFile.exists());
+        // Simulate a crash while the third frame was written.
+        FileWriter out = new FileWriter(m.temporaryFileForFrame(2));
+        out.write("broken");
+        out.close();
+
+        Movie resumed = Movie.resume(manifestFile);
+        assertEquals(2, resumed.getFrameCount());
+        assertEquals(m.temporaryFileForFrame(1), resumed.temporaryFileForFrame(1));
+        assertFalse(m.temporaryFileForFrame(3).exists());
+        resumed.addFrame(new int[size * size]);
+        assertEquals(3, resumed.getFrameCount());
+        resumed.save();
+        assertTrue(resumed.getMovieFile().exists());
+        assertFalse(manifestFile.exists());
+        assertFalse(resumed.temporaryFileForFrame(0).exists());
+    }
+
     /**
      * Test if all files are cleaned up.
      */
@@ -73,6 +895,18 @@ public class MovieTest extends TestCase {
         return m;
     }
 
+    private Movie createSpoolMovie(int frameCount) {
+        String movieFile = markForDeletion("test.mov");
+        int size = 100;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Movie m = new Movie(movieFile, size, size);
+        m.setExportMode(Movie.ExportMode.SPOOL);
+        for (int i = 0; i < frameCount; i++) {
+            m.addFrame(img);
+        }
+        return m;
+    }
+
     private String markForDeletion(String filename) {
         filesToDelete.add(new File(filename));
         return filename;
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class SegmentCacheTest extends TestCase {
+
+    private File directory;
+    private File source;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "simovex-segment-cache-test");
+        source = File.createTempFile("segment", ".mov");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+        source.delete();
+    }
+
+    public void testGetAndPut() throws IOException {
+        SegmentCache cache = new SegmentCache(directory, 1000);
+        File target = File.createTempFile("segment", ".mov");
+        try {
+            assertFalse(cache.get("a.mov", target));
+            writeSource(100);
+            cache.put("a.mov", source);
+            assertEquals(100, cache.getSize());
+            assertTrue(cache.get("a.mov", target));
+            assertEquals(100, target.length());
+        } finally {
+            target.delete();
+        }
+    }
+
+    /**
+     * Test if the least recently used segments are removed when the cache is full.
+     */
+    public void testEviction() throws IOException {
+        SegmentCache cache = new SegmentCache(directory, 250);
+        File target = File.createTempFile("segment", ".mov");
+        try {
+            writeSource(100);
+            cache.put("a.mov", source);
+            cache.put("b.mov", source);
+            assertTrue(cache.get("a.mov", target));
+            cache.put("c.mov", source);
+            assertEquals(2, cache.getSegmentCount());
+            assertEquals(200, cache.getSize());
+            assertTrue(cache.get("a.mov", target));
+            assertFalse(cache.get("b.mov", target));
+            assertFalse(new File(directory, "b.mov").exists());
+        } finally {
+            target.delete();
+        }
+    }
+
+    /**
+     * Test if a new cache picks up the segments that are already in the directory.
+     */
+    public void testReopen() throws IOException {
+        writeSource(100);
+        new SegmentCache(directory, 1000).put("a.mov", source);
+        SegmentCache cache = new SegmentCache(directory, 1000);
+        assertEquals(1, cache.getSegmentCount());
+        assertEquals(100, cache.getSize());
+    }
+
+    private void writeSource(int size) throws IOException {
+        FileWriter out = new FileWriter(source);
+        for (int i = 0; i < size; i++) {
+            out.write('x');
+        }
+        out.close();
+    }
+
+}
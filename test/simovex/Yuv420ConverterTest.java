@@ -0,0 +1,86 @@
+/**
+ * Copyright 2009 Frederik De Bleser
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package simovex;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class Yuv420ConverterTest extends TestCase {
+
+    /**
+     * Test if colors are converted to the limited-range values ffmpeg uses.
+     */
+    public void testColors() throws Exception {
+        assertColor(0xff000000, 16, 128, 128);
+        assertColor(0xffffffff, 235, 128, 128);
+        assertColor(0xffff0000, 81, 90, 240);
+        assertColor(0xff00ff00, 145, 54, 34);
+        assertColor(0xff0000ff, 41, 240, 110);
+    }
+
+    /**
+     * Test if odd sizes give chroma planes rounded up.
+     */
+    public void testFrameSize() {
+        assertEquals(4 * 2 + 2 * 2 * 1, new Yuv420Converter(4, 2, null, 1).getFrameSize());
+        assertEquals(5 * 3 + 2 * 3 * 2, new Yuv420Converter(5, 3, null, 1).getFrameSize());
+    }
+
+    /**
+     * Test if converting in bands gives the same result as converting in one go.
+     */
+    public void testBands() throws Exception {
+        int width = 101, height = 333;
+        int[] argb = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = random.nextInt();
+        }
+        Yuv420Converter single = new Yuv420Converter(width, height, null, 1);
+        byte[] expected = new byte[single.getFrameSize()];
+        single.convert(argb, expected);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            byte[] yuv = new byte[single.getFrameSize()];
+            new Yuv420Converter(width, height, executor, 4).convert(argb, yuv);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals("Byte " + i, expected[i], yuv[i]);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertColor(int argb, int y, int u, int v) throws Exception {
+        Yuv420Converter converter = new Yuv420Converter(3, 3, null, 1);
+        int[] pixels = new int[9];
+        Arrays.fill(pixels, argb);
+        byte[] yuv = new byte[converter.getFrameSize()];
+        converter.convert(pixels, yuv);
+        for (int i = 0; i < 9; i++) {
+            assertEquals(y, yuv[i] & 0xff);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(u, yuv[9 + i] & 0xff);
+            assertEquals(v, yuv[13 + i] & 0xff);
+        }
+    }
+
+}